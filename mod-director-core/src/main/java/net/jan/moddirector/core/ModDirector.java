@@ -5,10 +5,13 @@ import net.jan.moddirector.core.configuration.modpack.ModpackConfiguration;
 import net.jan.moddirector.core.logging.ModDirectorSeverityLevel;
 import net.jan.moddirector.core.logging.ModDirectorLogger;
 import net.jan.moddirector.core.configuration.ConfigurationController;
+import net.jan.moddirector.core.manage.HostScheduler;
 import net.jan.moddirector.core.manage.InstallController;
 import net.jan.moddirector.core.manage.InstalledModsTracker;
 import net.jan.moddirector.core.manage.NullProgressCallback;
+import net.jan.moddirector.core.manage.PackFingerprint;
 import net.jan.moddirector.core.manage.ProgressCallback;
+import net.jan.moddirector.core.manage.RemoteDocumentCache;
 import net.jan.moddirector.core.manage.install.InstallableMod;
 import net.jan.moddirector.core.manage.install.InstalledMod;
 import net.jan.moddirector.core.manage.ModDirectorError;
@@ -18,22 +21,39 @@ import net.jan.moddirector.core.platform.ModDirectorPlatform;
 import net.jan.moddirector.core.ui.SetupDialog;
 import net.jan.moddirector.core.ui.VersionMismatchDialog;
 import net.jan.moddirector.core.ui.page.ProgressPage;
+import net.jan.moddirector.core.util.BandwidthLimiter;
+import net.jan.moddirector.core.util.ConnectivityProbe;
+import net.jan.moddirector.core.util.ThroughputMeter;
 import net.jan.moddirector.core.util.WebClient;
 
 import java.nio.file.Path;
-import net.jan.moddirector.core.util.WebGetResponse;
 import net.minecraftforge.fml.exit.QualifiedExit;
 import org.apache.commons.io.FileUtils;
 
 import java.io.*;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
 
 public class ModDirector {
+    private static final long THROUGHPUT_LOG_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+    // Without network a connect usually fails immediately, this only bounds black-holed connections
+    private static final int CONNECTIVITY_PROBE_TIMEOUT_MILLIS = 3000;
+    private static final String[] CONNECTIVITY_PROBE_URLS = {
+            "https://api.curse.tools",
+            "https://api.modrinth.com"
+    };
+
     private static ModDirector instance;
 
     public static ModDirector bootstrap(ModDirectorPlatform platform) {
@@ -63,9 +83,15 @@ public class ModDirector {
     private final List<ModDirectorError> errors;
     private final List<InstalledMod> installedMods;
     private final ExecutorService executorService;
+    private final ExecutorService installExecutorService;
     private final NullProgressCallback nullProgressCallback;
+    private final AtomicLong lastThroughputLog = new AtomicLong(System.nanoTime());
     private final InstalledModsTracker installedModsTracker;
+    private final RemoteDocumentCache remoteDocumentCache;
+    private volatile HostScheduler installScheduler;
     private String modpackRemoteVersion;
+    private volatile boolean offline;
+    private boolean connectivityProbed;
 
     private ModDirector(ModDirectorPlatform platform) {
         this.platform = platform;
@@ -75,14 +101,25 @@ public class ModDirector {
         this.installedModsTracker = new InstalledModsTracker(this);
         this.installController = new InstallController(this, installedModsTracker);
         this.installSelector = new InstallSelector();
+        this.remoteDocumentCache = new RemoteDocumentCache(this);
 
         this.errors = new LinkedList<>();
         this.installedMods = new LinkedList<>();
         // Higher parallelism for the per-mod network query phase ("Querying mod information"):
         // each mod does an independent, latency-bound HTTP GET, so more threads shrink the wall time.
         this.executorService = Executors.newFixedThreadPool(16);
-
-        this.nullProgressCallback = new NullProgressCallback();
+        // Downloads run on their own pool, they start while the query phase still runs and must not
+        // starve it of threads
+        this.installExecutorService = Executors.newFixedThreadPool(16);
+
+        // Headless there is nothing to show progress on, but the combined rate is logged every few
+        // seconds, a server owner capping the bandwidth wants to see it
+        this.nullProgressCallback = new NullProgressCallback() {
+            @Override
+            public void reportThroughput(double bytesPerSecond) {
+                logThroughput(bytesPerSecond);
+            }
+        };
 
         this.modpackRemoteVersion = null;
 
@@ -107,22 +144,69 @@ public class ModDirector {
         return nullProgressCallback;
     }
 
+    private void logThroughput(double bytesPerSecond) {
+        long now = System.nanoTime();
+        long last = lastThroughputLog.get();
+        if(now - last >= THROUGHPUT_LOG_INTERVAL_NANOS && lastThroughputLog.compareAndSet(last, now)) {
+            logger.log(ModDirectorSeverityLevel.INFO, "ModDirector", "CORE", "Downloading at %s, %.1f MB so far",
+                    ThroughputMeter.format(bytesPerSecond), ThroughputMeter.totalBytes() / (1024.0 * 1024.0));
+        }
+    }
+
     public boolean activate(long timeout, TimeUnit timeUnit) throws InterruptedException, IOException {
-        configurationController.load();
-        List<ModDirectorRemoteMod> mods = configurationController.getConfigurations();
+        configurationController.loadModpackConfiguration();
         ModpackConfiguration modpackConfiguration = configurationController.getModpackConfiguration();
 
         if(modpackConfiguration == null) {
             logger.log(ModDirectorSeverityLevel.WARN, "ModDirector", "CORE",
                     "This modpack does not contain a modpack.json, if you are the author, consider adding one!");
             modpackConfiguration = ModpackConfiguration.createDefault();
+        }
+
+        WebClient.configure(modpackConfiguration.network());
+        // Whoever runs the server knows better what the uplink can spare than the pack author
+        BandwidthLimiter.configure(Long.getLong("moddirector.maxBandwidth", modpackConfiguration.network().maxBandwidth()));
+
+        if(Boolean.getBoolean("moddirector.offline")) {
+            switchOffline();
         } else if(modpackConfiguration.remoteVersion() != null) {
-            try(WebGetResponse response = WebClient.get(modpackConfiguration.remoteVersion());
-                BufferedReader reader = new BufferedReader(new InputStreamReader(response.getInputStream(), StandardCharsets.UTF_8))) {
-                modpackRemoteVersion = reader.readLine();
+            byte[] remoteVersion;
+            try {
+                remoteVersion = remoteDocumentCache.fetch(modpackConfiguration.remoteVersion(),
+                        modpackConfiguration.network().remoteDocumentMaxAge());
+            } catch(IOException e) {
+                if(!detectOfflineAfterFailure()) {
+                    throw e;
+                }
+                remoteVersion = null;
             }
+
+            if(remoteVersion != null) {
+                try(BufferedReader reader = new BufferedReader(new InputStreamReader(
+                        new ByteArrayInputStream(remoteVersion), StandardCharsets.UTF_8))) {
+                    modpackRemoteVersion = reader.readLine();
+                }
+            }
+        }
+
+        if(hasFatalError()) {
+            return false;
         }
 
+        PackFingerprint fingerprint = new PackFingerprint(this, platform.configurationDirectory());
+        // Offline the remote version is unknown, the one recorded by the last successful run is the
+        // best there is
+        if(fingerprint.matches(modpackRemoteVersion, !offline)) {
+            logger.log(ModDirectorSeverityLevel.INFO, "ModDirector", "CORE",
+                    "Nothing changed since the last successful run, skipping installation checks");
+            executorService.shutdown();
+            installExecutorService.shutdown();
+            return true;
+        }
+
+        configurationController.loadConfigurations();
+        List<ModDirectorRemoteMod> mods = configurationController.getConfigurations();
+
         if(hasFatalError()) {
             return false;
         }
@@ -137,17 +221,39 @@ public class ModDirector {
         ProgressPage preInstallationPage = setupDialog == null ? null
                 : setupDialog.navigateToProgressPage("Checking installation...");
 
-        List<ModDirectorRemoteMod> excludedMods = new ArrayList<>();
-        List<InstallableMod> reInstalls = new ArrayList<>();
-        List<InstallableMod> freshInstalls = new ArrayList<>();
+        installController.prefetchInformation(mods);
+
+        BiFunction<String, String, ProgressCallback> preInstallCallbackFactory = preInstallationPage != null ?
+                preInstallationPage::createProgressCallback :
+                this::createNullProgressCallback;
+
+        // Downloads are capped per host, so one slow host can not take all install workers
+        installScheduler = new HostScheduler(this, installExecutorService,
+                configurationController.getNetworkConfiguration());
+
+        // Filled concurrently by the pre-install tasks
+        List<ModDirectorRemoteMod> excludedMods = Collections.synchronizedList(new ArrayList<>());
+        List<InstallableMod> reInstalls = Collections.synchronizedList(new ArrayList<>());
+        List<InstallableMod> freshInstalls = Collections.synchronizedList(new ArrayList<>());
+
+        // Mods which do not depend on the selection dialog start downloading as soon as their own
+        // query is done instead of waiting for the whole query phase
+        List<InstallableMod> eagerInstalls = Collections.synchronizedList(new ArrayList<>());
+        List<Future<Void>> installFutures = Collections.synchronizedList(new ArrayList<>());
+        installController.recordTrackingState();
+        Consumer<InstallableMod> installNow = mod -> {
+            eagerInstalls.add(mod);
+            installFutures.add(installScheduler.submit(mod.getDownloadHost(),
+                    installController.createInstallTask(mod, preInstallCallbackFactory)));
+        };
+
         List<Callable<Void>> preInstallTasks = installController.createPreInstallTasks(
                 mods,
                 excludedMods,
                 freshInstalls,
                 reInstalls,
-                preInstallationPage != null ?
-                        preInstallationPage::createProgressCallback :
-                        this::createNullProgressCallback
+                installNow,
+                preInstallCallbackFactory
         );
 
         awaitAll(executorService.invokeAll(preInstallTasks));
@@ -156,20 +262,28 @@ public class ModDirector {
         // skip the network. Guarded so a cache write failure can never break the boot path.
         try {
             installController.persistModInfoDiskCache();
+            installController.persistFileHashDiskCache();
         } catch(Exception e) {
             logger.logThrowable(ModDirectorSeverityLevel.WARN, "ModDirector", "CORE", e,
-                    "Failed to persist mod info disk cache");
+                    "Failed to persist disk caches");
         }
 
-        installSelector.accept(excludedMods, freshInstalls, reInstalls);
+        installSelector.accept(excludedMods, freshInstalls, reInstalls, new HashSet<>(eagerInstalls));
 
         if(hasFatalError()) {
             errorExit();
         }
 
         // Identify old mods that are no longer in the configuration
-        logger.log(ModDirectorSeverityLevel.INFO, "ModDirector", "CORE", "Identifying old mod files...");
-        List<Path> oldMods = installController.identifyOldMods(mods, freshInstalls, reInstalls);
+        // Offline, mods without cached information have no known file name, their files would be
+        // mistaken for old ones
+        List<Path> oldMods;
+        if(offline) {
+            oldMods = Collections.emptyList();
+        } else {
+            logger.log(ModDirectorSeverityLevel.INFO, "ModDirector", "CORE", "Identifying old mod files...");
+            oldMods = installController.identifyOldMods(mods, freshInstalls, reInstalls);
+        }
         
         // Create removal selector for old mods
         RemovalSelector removalSelector = new RemovalSelector();
@@ -191,28 +305,42 @@ public class ModDirector {
         List<InstallableMod> toInstall = installSelector.computeModsToInstall();
         ProgressPage installProgressPage = setupDialog == null ? null :
                 setupDialog.navigateToProgressPage("Installing " + modpackConfiguration.packName());
+        if(installProgressPage != null) {
+            // Eager installs may still be running, their progress belongs on the install page
+            installProgressPage.takeOver(preInstallationPage);
+        }
 
-        List<Callable<Void>> installTasks = installController.createInstallTasks(
-                toInstall,
-                installProgressPage != null ?
-                        installProgressPage::createProgressCallback :
-                        this::createNullProgressCallback
-        );
+        BiFunction<String, String, ProgressCallback> installCallbackFactory = installProgressPage != null ?
+                installProgressPage::createProgressCallback :
+                this::createNullProgressCallback;
+
+        for(InstallableMod mod : toInstall) {
+            installFutures.add(installScheduler.submit(mod.getDownloadHost(),
+                    installController.createInstallTask(mod, installCallbackFactory)));
+        }
 
-        installTasks.add(() -> {
+        installFutures.add(installExecutorService.submit(() -> {
             installController.markDisabledMods(installSelector.computeDisabledMods());
             return null;
-        });
+        }));
 
-        awaitAll(executorService.invokeAll(installTasks));
+        awaitAll(new ArrayList<>(installFutures));
+
+        if(ThroughputMeter.totalBytes() > 0) {
+            logger.log(ModDirectorSeverityLevel.INFO, "ModDirector", "CORE", "Downloaded %.1f MB at %s",
+                    ThroughputMeter.totalBytes() / (1024.0 * 1024.0),
+                    ThroughputMeter.format(ThroughputMeter.averageBytesPerSecond()));
+        }
 
         if(hasFatalError()) {
             errorExit();
         }
 
         // Remove old mods that the user selected for deletion
+        boolean oldModsKept = false;
         if (removalSelector.hasModsToRemove()) {
             List<Path> modsToRemove = removalSelector.computeModsToRemove();
+            oldModsKept = modsToRemove.size() < oldMods.size();
             if (!modsToRemove.isEmpty()) {
                 logger.log(ModDirectorSeverityLevel.INFO, "ModDirector", "CORE", 
                         "Removing %d old mod file(s)...", modsToRemove.size());
@@ -222,9 +350,12 @@ public class ModDirector {
 
         // Save the tracker after all installations and removals are complete
         installedModsTracker.save();
+        installController.persistFileHashDiskCache();
 
         executorService.shutdown();
+        installExecutorService.shutdown();
         executorService.awaitTermination(timeout, timeUnit);
+        installExecutorService.awaitTermination(timeout, timeUnit);
 
         if(setupDialog != null) {
             setupDialog.dispose();
@@ -232,7 +363,23 @@ public class ModDirector {
 
         VersionMismatchDialog versionMismatchDialog = null;
 
-        if(modpackConfiguration.remoteVersion() != null && modpackConfiguration.localVersion() != null && !modpackRemoteVersion.contains(modpackConfiguration.localVersion())) {
+        // Offline the remote version could not be fetched, which says nothing about a mismatch
+        boolean versionMismatch = !offline && modpackConfiguration.remoteVersion() != null && modpackConfiguration.localVersion() != null
+                && (modpackRemoteVersion == null || !modpackRemoteVersion.contains(modpackConfiguration.localVersion()));
+
+        // Only a run which left nothing to do may be skipped next time: no errors or warnings to
+        // retry, no old mods the user chose to keep (they would be offered again) and no mismatch
+        // to show. Offline runs are never recorded, they could not check the remote version.
+        if(errors.isEmpty() && !oldModsKept && !versionMismatch && !offline) {
+            Set<Path> directories = new HashSet<>(installController.getTargetDirectories());
+            directories.addAll(configurationController.getModifiedDirectories());
+            directories.remove(null);
+            fingerprint.record(modpackRemoteVersion, directories);
+        } else {
+            fingerprint.invalidate();
+        }
+
+        if(versionMismatch) {
             logger.log(ModDirectorSeverityLevel.ERROR, "ModDirector", "CORE",
                 "Modpack version mismatch!");
             if (!platform.headless()) {
@@ -259,10 +406,30 @@ public class ModDirector {
         return configurationController;
     }
 
+    /**
+     * Returns the scheduler limiting the connections per host of the install phase, or {@code null}
+     * before the install phase started.
+     */
+    public HostScheduler getInstallScheduler() {
+        return installScheduler;
+    }
+
+    public RemoteDocumentCache getRemoteDocumentCache() {
+        return remoteDocumentCache;
+    }
+
     public String getModpackRemoteVersion() {
         return modpackRemoteVersion;
     }
 
+    /**
+     * Determines whether this run is offline, meaning mods are only installed from the local disk
+     * caches and nothing is fetched from the network.
+     */
+    public boolean isOffline() {
+        return offline;
+    }
+
     public void addError(ModDirectorError error) {
         synchronized(errors) {
             errors.add(error);
@@ -300,6 +467,50 @@ public class ModDirector {
         QualifiedExit.exit(1);
     }
 
+    /**
+     * Called after a request failed in a way which could mean there is no network at all. Probes
+     * the hosts the pack depends on, at most once per run, and switches to offline mode if none of
+     * them can be reached. Offline mode can be forced with {@code -Dmoddirector.offline=true} and
+     * the probe disabled with {@code -Dmoddirector.offline=false}.
+     *
+     * @return whether this run is offline now
+     */
+    public synchronized boolean detectOfflineAfterFailure() throws InterruptedException {
+        if(offline || connectivityProbed || System.getProperty("moddirector.offline") != null) {
+            return offline;
+        }
+        connectivityProbed = true;
+
+        List<URL> probeUrls = new ArrayList<>();
+        try {
+            if(configurationController.getModpackConfiguration() != null
+                    && configurationController.getModpackConfiguration().remoteVersion() != null) {
+                probeUrls.add(configurationController.getModpackConfiguration().remoteVersion());
+            }
+            for(String probeUrl : CONNECTIVITY_PROBE_URLS) {
+                probeUrls.add(new URL(probeUrl));
+            }
+        } catch(MalformedURLException e) {
+            throw new RuntimeException("Connectivity probe url seems to be invalid?", e);
+        }
+
+        if(ConnectivityProbe.anyReachable(probeUrls, CONNECTIVITY_PROBE_TIMEOUT_MILLIS)) {
+            return false;
+        }
+
+        logger.log(ModDirectorSeverityLevel.WARN, "ModDirector", "CORE",
+                "None of %s could be reached, assuming there is no network", probeUrls);
+        switchOffline();
+        return true;
+    }
+
+    private void switchOffline() {
+        offline = true;
+        WebClient.setOffline(true);
+        logger.log(ModDirectorSeverityLevel.WARN, "ModDirector", "CORE",
+                "Running in offline mode, mods can only be installed from local caches");
+    }
+
     private void awaitAll(List<Future<Void>> futures) throws InterruptedException {
         for(Future<Void> future : futures) {
             try {
@@ -3,36 +3,42 @@ package net.jan.moddirector.core.configuration;
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.PropertyAccessor;
 import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import net.jan.moddirector.core.ModDirector;
 import net.jan.moddirector.core.configuration.modpack.ModpackConfiguration;
+import net.jan.moddirector.core.configuration.modpack.ModpackNetworkConfiguration;
 import net.jan.moddirector.core.configuration.type.*;
 import net.jan.moddirector.core.logging.ModDirectorSeverityLevel;
+import net.jan.moddirector.core.manage.ConfigurationSnapshot;
 import net.jan.moddirector.core.manage.ModDirectorError;
-import net.jan.moddirector.core.util.WebClient;
-import net.jan.moddirector.core.util.WebGetResponse;
 import net.jan.moddirector.core.configuration.WarningDisplay;
 
 import java.io.*;
 import java.net.UnknownHostException;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.FileSystemException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-import com.google.gson.JsonArray;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
 
 public class ConfigurationController {
     public static final ObjectMapper OBJECT_MAPPER = createObjectMapper();
     private static final String LOG_DOMAIN = "ModDirector/ConfigurationController";
+    // Loading is mostly waiting for the disk or for remote configurations
+    private static final int MAX_LOADER_THREADS = 8;
 
     private static ObjectMapper createObjectMapper() {
         ObjectMapper instance = new ObjectMapper();
@@ -44,6 +50,7 @@ public class ConfigurationController {
     private final ModDirector director;
     private final Path configurationDirectory;
     private final List<ModDirectorRemoteMod> configurations;
+    private final Set<Path> modifiedDirectories;
 
     private ModpackConfiguration modpackConfiguration;
 
@@ -51,26 +58,98 @@ public class ConfigurationController {
         this.director = director;
         this.configurationDirectory = configurationDirectory;
         this.configurations = new ArrayList<>();
+        this.modifiedDirectories = new HashSet<>();
     }
 
     public void load() {
+        if(loadModpackConfiguration()) {
+            loadConfigurations();
+        }
+    }
+
+    /**
+     * Loads the {@code modpack.json}, if present. Returns {@code false} if it exists but could not be
+     * read, in which case the remaining configurations should not be loaded either.
+     */
+    public boolean loadModpackConfiguration() {
         Path modpackConfigPath = configurationDirectory.resolve("modpack.json");
-        if(Files.exists(modpackConfigPath) && !loadModpackConfiguration(modpackConfigPath)) {
-                return;
+        return !Files.exists(modpackConfigPath) || loadModpackConfiguration(modpackConfigPath);
+    }
+
+    /**
+     * Loads all mod configurations and applies the modify operations they contain. Files are read,
+     * fetched (remote configurations) and parsed in parallel, but merged and their modify operations
+     * applied one after another in sorted order, exactly as if they had been loaded serially. While
+     * the configuration is unchanged, the result is read from a {@link ConfigurationSnapshot} instead.
+     */
+    public void loadConfigurations() {
+        ConfigurationSnapshot snapshot = new ConfigurationSnapshot(director, configurationDirectory);
+        ConfigurationSnapshot.Contents contents = snapshot.load();
+        if(contents != null) {
+            configurations.addAll(contents.getMods());
+            contents.getModifications().forEach(this::handleModifyConfig);
+            return;
         }
 
-        try(Stream<Path> paths = Files.walk(configurationDirectory)) {
-            paths
+        List<Path> paths;
+        try(Stream<Path> stream = Files.walk(configurationDirectory)) {
+            paths = stream
                     .filter(Files::isRegularFile)
                     .filter(p -> p.toString().endsWith(".json"))
                     .filter(p -> !p.getFileName().toString().equals("modpack.json"))
                     .sorted()
-                    .forEach(this::addConfig);
+                    .collect(Collectors.toList());
         } catch(IOException e) {
             director.getLogger().logThrowable(ModDirectorSeverityLevel.ERROR, LOG_DOMAIN,
                     "CORE", e, "Failed to iterate configuration directory!");
             director.addError(new ModDirectorError(ModDirectorSeverityLevel.ERROR,
                     "Failed to iterate configuration directory", e));
+            return;
+        }
+
+        if(paths.isEmpty()) {
+            return;
+        }
+
+        List<ModifyMod> modifications = new ArrayList<>();
+        boolean complete = true;
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(paths.size(), MAX_LOADER_THREADS));
+        try {
+            List<Future<LoadedConfig>> futures = new ArrayList<>();
+            for(Path path : paths) {
+                futures.add(executor.submit(() -> loadConfig(path)));
+            }
+
+            for(int i = 0; i < futures.size(); i++) {
+                LoadedConfig config;
+                try {
+                    config = futures.get(i).get();
+                } catch(ExecutionException e) {
+                    director.getLogger().logThrowable(ModDirectorSeverityLevel.ERROR, LOG_DOMAIN,
+                            "CORE", e.getCause(), "Failed to load configuration %s", paths.get(i));
+                    director.addError(new ModDirectorError(ModDirectorSeverityLevel.ERROR,
+                            "Failed to load configuration " + paths.get(i), e.getCause()));
+                    complete = false;
+                    continue;
+                }
+
+                complete &= !config.failed;
+                configurations.addAll(config.mods);
+                modifications.addAll(config.modifications);
+                config.modifications.forEach(this::handleModifyConfig);
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            director.addError(new ModDirectorError(ModDirectorSeverityLevel.ERROR,
+                    "Interrupted while loading configurations", e));
+            return;
+        } finally {
+            executor.shutdownNow();
+        }
+
+        if(complete) {
+            snapshot.store(configurations, modifications);
         }
     }
 
@@ -87,23 +166,38 @@ public class ConfigurationController {
         }
     }
 
-    private void addConfig(Path configurationPath) {
-        String configString = configurationPath.toString();
-
+    private LoadedConfig loadConfig(Path configurationPath) {
         director.getLogger().log(ModDirectorSeverityLevel.INFO, LOG_DOMAIN,
-                "CORE", "Loading config %s", configString);
-
-        if(configString.endsWith(".remote.json")) {
-            handleRemoteConfig(configurationPath);
-        } else if(configString.endsWith(".bundle.json")) {
-            handleBundleConfig(configurationPath);
-        } else if(configString.endsWith(".modify.json")) {
-            handleModifyConfig(configurationPath);
+                "CORE", "Loading config %s", configurationPath.toString());
+
+        LoadedConfig config = new LoadedConfig();
+        try(InputStream stream = Files.newInputStream(configurationPath)) {
+            parseConfig(configurationPath.getFileName().toString(), stream, config);
+        } catch(IOException e) {
+            handleConfigException(e);
+            // Nothing of a configuration which failed halfway is applied
+            LoadedConfig failed = new LoadedConfig();
+            failed.failed = true;
+            return failed;
+        }
+        return config;
+    }
+
+    private void parseConfig(String name, InputStream stream, LoadedConfig config) throws IOException {
+        if(name.endsWith(".remote.json")) {
+            parseRemoteConfig(stream, config);
+        } else if(name.endsWith(".bundle.json")) {
+            parseBundleConfig(stream, config);
+        } else if(name.endsWith(".modify.json")) {
+            config.modifications.add(OBJECT_MAPPER.readValue(stream, ModifyMod.class));
         } else {
-            handleSingleConfig(configurationPath);
+            Class<? extends ModDirectorRemoteMod> targetType = getTypeForFile(name);
+            if(targetType != null) {
+                config.mods.add(OBJECT_MAPPER.readValue(stream, targetType));
+            }
         }
     }
-    
+
     private void safeDelete(Path file) {
         int attempts = 5;
         while (attempts-- > 0) {
@@ -174,90 +268,122 @@ public class ConfigurationController {
         }
     }
 
-    private void handleRemoteConfig(Path configurationPath) {
-        try(InputStream stream = Files.newInputStream(configurationPath)) {
-            RemoteConfig remoteConfig = OBJECT_MAPPER.readValue(stream, RemoteConfig.class);
-            try(WebGetResponse response = WebClient.get(remoteConfig.getUrl())) {
-                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-                IOUtils.copy(response.getInputStream(), outputStream);
-                String fileName = remoteConfig.getUrl().toString().substring(remoteConfig.getUrl().toString().lastIndexOf('/') + 1);
-                Path installationRoot = director.getPlatform().installationRoot().toAbsolutePath().normalize();
-                Path remoteConfigPath = installationRoot.resolve(configurationDirectory).resolve(fileName);
-                Files.write(remoteConfigPath, outputStream.toByteArray());
-                addConfig(remoteConfigPath);
-                safeDelete(remoteConfigPath);
-            } catch(UnknownHostException e) {
-                director.getLogger().logThrowable(ModDirectorSeverityLevel.ERROR, LOG_DOMAIN,
-                        "CORE", e, "Failed to resolve URL %s, skipping remote config...", remoteConfig.getUrl());
-            }
+    private void parseRemoteConfig(InputStream stream, LoadedConfig config) throws IOException {
+        RemoteConfig remoteConfig = OBJECT_MAPPER.readValue(stream, RemoteConfig.class);
+
+        // The fetched configuration is dispatched by the file name in its url, like a local one
+        String fileName = remoteConfig.getUrl().toString().substring(remoteConfig.getUrl().toString().lastIndexOf('/') + 1);
+        director.getLogger().log(ModDirectorSeverityLevel.INFO, LOG_DOMAIN,
+                "CORE", "Loading remote config %s", remoteConfig.getUrl());
+
+        byte[] content;
+        try {
+            content = director.getRemoteDocumentCache().fetch(remoteConfig.getUrl(),
+                    getNetworkConfiguration().remoteDocumentMaxAge());
+        } catch(UnknownHostException e) {
+            director.getLogger().logThrowable(ModDirectorSeverityLevel.ERROR, LOG_DOMAIN,
+                    "CORE", e, "Failed to resolve URL %s, skipping remote config...", remoteConfig.getUrl());
+            return;
         } catch(IOException e) {
-            handleConfigException(e);
+            if(!isOfflineAfterFailure()) {
+                throw e;
+            }
+
+            // Offline and never fetched before
+            director.getLogger().log(ModDirectorSeverityLevel.WARN, LOG_DOMAIN,
+                    "CORE", "Running in offline mode, skipping remote config %s", remoteConfig.getUrl());
+            director.addError(new ModDirectorError(ModDirectorSeverityLevel.WARN,
+                    "Skipped remote config " + remoteConfig.getUrl() + " in offline mode"));
+            return;
         }
+
+        parseConfig(fileName, new ByteArrayInputStream(content), config);
     }
 
-    private void handleBundleConfig(Path configurationPath) {
-        try(InputStream stream = Files.newInputStream(configurationPath);
-            BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
-            JsonObject jsonObject = new JsonParser().parse(reader).getAsJsonObject();
+    private boolean isOfflineAfterFailure() throws InterruptedIOException {
+        try {
+            return director.detectOfflineAfterFailure();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while probing the network");
+        }
+    }
 
-            JsonArray jsonArray = jsonObject.getAsJsonArray("curse");
-            if(jsonArray != null) {
-                for(JsonElement jsonElement : jsonArray) {
-                    configurations.add(OBJECT_MAPPER.readValue(jsonElement.toString(), CurseRemoteMod.class));
-                }
-            }
+    private void parseBundleConfig(InputStream stream, LoadedConfig config) throws IOException {
+        // Single streaming pass, every entry is bound straight from the parser. The sections are
+        // applied in a fixed order no matter where they appear in the file.
+        List<ModDirectorRemoteMod> curseMods = new ArrayList<>();
+        List<ModDirectorRemoteMod> modrinthMods = new ArrayList<>();
+        List<ModDirectorRemoteMod> urlMods = new ArrayList<>();
+        List<ModifyMod> modifyMods = new ArrayList<>();
 
-            jsonArray = jsonObject.getAsJsonArray("modrinth");
-            if(jsonArray != null) {
-                for(JsonElement jsonElement : jsonArray) {
-                    configurations.add(OBJECT_MAPPER.readValue(jsonElement.toString(), ModrinthRemoteMod.class));
-                }
-            }
+        try(JsonParser parser = OBJECT_MAPPER.getFactory().createParser(stream)) {
+            // The bundle used to be read by a lenient parser, keep accepting comments
+            parser.enable(JsonParser.Feature.ALLOW_COMMENTS);
 
-            jsonArray = jsonObject.getAsJsonArray("url");
-            if(jsonArray != null) {
-                for(JsonElement jsonElement : jsonArray) {
-                    configurations.add(OBJECT_MAPPER.readValue(jsonElement.toString(), UrlRemoteMod.class));
-                }
+            if(parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException(parser, "Expected a bundle object");
             }
 
-            jsonArray = jsonObject.getAsJsonArray("modify");
-            if(jsonArray != null) {
-                for(JsonElement jsonElement : jsonArray) {
-                    ModifyMod modifyMod = OBJECT_MAPPER.readValue(jsonElement.toString(), ModifyMod.class);
-                    handleModifyConfig(modifyMod);
+            while(parser.nextToken() == JsonToken.FIELD_NAME) {
+                String section = parser.getCurrentName();
+                parser.nextToken();
+
+                switch(section) {
+                    case "curse":
+                        readBundleSection(parser, CurseRemoteMod.class, curseMods);
+                        break;
+
+                    case "modrinth":
+                        readBundleSection(parser, ModrinthRemoteMod.class, modrinthMods);
+                        break;
+
+                    case "url":
+                        readBundleSection(parser, UrlRemoteMod.class, urlMods);
+                        break;
+
+                    case "modify":
+                        readBundleSection(parser, ModifyMod.class, modifyMods);
+                        break;
+
+                    default:
+                        parser.skipChildren();
+                        break;
                 }
             }
-        } catch(IOException e) {
-            handleConfigException(e);
         }
+
+        config.mods.addAll(curseMods);
+        config.mods.addAll(modrinthMods);
+        config.mods.addAll(urlMods);
+        config.modifications.addAll(modifyMods);
     }
 
-    private void handleSingleConfig(Path configurationPath) {
-        Class<? extends ModDirectorRemoteMod> targetType = getTypeForFile(configurationPath);
-        if(targetType != null) {
-            try(InputStream stream = Files.newInputStream(configurationPath)) {
-                configurations.add(OBJECT_MAPPER.readValue(stream, targetType));
-            }
-            catch(IOException e) {
-                handleConfigException(e);
-            }
+    private static <T> void readBundleSection(JsonParser parser, Class<? extends T> type, List<T> target)
+            throws IOException {
+        if(parser.currentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return;
         }
-    }
 
-    private void handleModifyConfig(Path configurationPath) {
-        try(InputStream stream = Files.newInputStream(configurationPath)) {
-            ModifyMod modifyMod = OBJECT_MAPPER.readValue(stream, ModifyMod.class);
-            handleModifyConfig(modifyMod);
-        } catch(IOException e) {
-            handleConfigException(e);
+        ObjectReader reader = OBJECT_MAPPER.readerFor(type);
+        while(parser.nextToken() != JsonToken.END_ARRAY) {
+            target.add(reader.readValue(parser));
         }
     }
+
     private void handleModifyConfig(ModifyMod modifyMod) {
         Path installationRoot = director.getPlatform().installationRoot().toAbsolutePath().normalize();
         Path modifyModFolderPath = installationRoot.resolve(modifyMod.getFolder());
 
+        modifiedDirectories.add(modifyModFolderPath);
+        if(modifyMod.getNewFolder() != null) {
+            modifiedDirectories.add(installationRoot.resolve(modifyMod.getNewFolder()));
+        }
+
         if (modifyMod.getFileName() == null) {
+            // A deleted folder showing up again is only visible in its parent
+            modifiedDirectories.add(modifyModFolderPath.getParent());
             if (Files.isDirectory(modifyModFolderPath) && modifyMod.shouldDelete()) {
                 director.getLogger().log(ModDirectorSeverityLevel.INFO, LOG_DOMAIN,
                         "CORE", "Deleting folder %s", modifyModFolderPath);
@@ -336,8 +462,7 @@ public class ConfigurationController {
             "Failed to " + (e instanceof JsonParseException ? "parse" : "open") + " a configuration for reading", e));
     }
 
-    private Class<? extends ModDirectorRemoteMod> getTypeForFile(Path file) {
-        String name = file.toString();
+    private Class<? extends ModDirectorRemoteMod> getTypeForFile(String name) {
         if(name.endsWith(".curse.json")) {
             return CurseRemoteMod.class;
         } else if(name.endsWith(".modrinth.json")) {
@@ -355,10 +480,30 @@ public class ConfigurationController {
         return modpackConfiguration;
     }
 
+    public ModpackNetworkConfiguration getNetworkConfiguration() {
+        return modpackConfiguration != null ? modpackConfiguration.network() : ModpackNetworkConfiguration.createDefault();
+    }
+
     public List<ModDirectorRemoteMod> getConfigurations() {
         return configurations;
     }
+
+    /**
+     * Returns the directories touched by the modify operations of the loaded configurations.
+     */
+    public Set<Path> getModifiedDirectories() {
+        return modifiedDirectories;
+    }
     
+    /**
+     * Mods and modify operations parsed from a single configuration file, before they are merged.
+     */
+    private static class LoadedConfig {
+        private final List<ModDirectorRemoteMod> mods = new ArrayList<>();
+        private final List<ModifyMod> modifications = new ArrayList<>();
+        private boolean failed;
+    }
+
     @FunctionalInterface
     interface IOOperation {
         void run() throws IOException;
@@ -3,6 +3,7 @@ package net.jan.moddirector.core.configuration;
 import net.jan.moddirector.core.ModDirector;
 import net.jan.moddirector.core.exception.ModDirectorException;
 import net.jan.moddirector.core.manage.ProgressCallback;
+import net.jan.moddirector.core.util.DownloadDigest;
 
 import java.net.URL;
 import java.nio.file.Path;
@@ -49,8 +50,22 @@ public abstract class ModDirectorRemoteMod {
     public abstract String offlineName();
 
     public abstract RemoteModInformation queryInformation() throws ModDirectorException;
+
+    /**
+     * Restores the state {@link #queryInformation()} would have resolved from previously persisted
+     * information, so the mod can be installed without querying its backend. Returns {@code false}
+     * if the information is not sufficient, in which case the mod has to be queried. Types which
+     * resolve nothing beyond the information itself need not override this.
+     */
+    public boolean restoreInformation(RemoteModInformation information) {
+        return true;
+    }
+    /**
+     * Downloads the mod to {@code targetFile}. Every byte written to the file is expected to pass
+     * through {@code digest}, or the digest has to be invalidated.
+     */
     public abstract void performInstall(Path targetFile, ProgressCallback progressCallback, ModDirector director,
-            RemoteModInformation information) throws ModDirectorException;
+            RemoteModInformation information, DownloadDigest digest) throws ModDirectorException;
 
     /**
      * Returns the concrete download URL that {@code --validate} should probe for reachability,
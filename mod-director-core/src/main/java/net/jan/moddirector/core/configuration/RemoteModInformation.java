@@ -1,12 +1,32 @@
 package net.jan.moddirector.core.configuration;
 
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+
 public class RemoteModInformation {
     private final String displayName;
     private final String targetFilename;
+    private final URL downloadUrl;
+    private final long contentLength;
+    private final Map<String, String> hashes;
 
     public RemoteModInformation(String displayName, String targetFilename) {
+        this(displayName, targetFilename, null, -1, null);
+    }
+
+    /**
+     * @param downloadUrl   the resolved download URL, or {@code null} if the backend has none
+     * @param contentLength the size of the file as reported by the backend, or -1 if unknown
+     * @param hashes        the hashes reported by the backend, keyed by Java algorithm name
+     */
+    public RemoteModInformation(String displayName, String targetFilename, URL downloadUrl, long contentLength,
+                                Map<String, String> hashes) {
         this.displayName = displayName;
         this.targetFilename = targetFilename;
+        this.downloadUrl = downloadUrl;
+        this.contentLength = contentLength;
+        this.hashes = hashes != null ? hashes : Collections.emptyMap();
     }
 
     public String getDisplayName() {
@@ -16,4 +36,16 @@ public class RemoteModInformation {
     public String getTargetFilename() {
         return targetFilename;
     }
+
+    public URL getDownloadUrl() {
+        return downloadUrl;
+    }
+
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    public Map<String, String> getHashes() {
+        return hashes;
+    }
 }
@@ -5,14 +5,14 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import net.jan.moddirector.core.ModDirector;
 import net.jan.moddirector.core.logging.ModDirectorSeverityLevel;
 import net.jan.moddirector.core.platform.PlatformSide;
+import net.jan.moddirector.core.util.DownloadDigest;
 import net.jan.moddirector.core.util.HashResult;
 
 import java.io.IOException;
-import java.math.BigInteger;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -29,15 +29,77 @@ public class RemoteModMetadata {
         this.side = side;
     }
 
+    /**
+     * Creates the digest to feed a download of this mod through, so the hashes can be verified
+     * with {@link #checkHashes(DownloadDigest, Path, ModDirector)} without reading the file again.
+     */
+    public DownloadDigest createDigest(ModDirector director) {
+        if(hashes == null) {
+            return DownloadDigest.none();
+        }
+
+        // All supported algorithms are computed in the same pass over the data
+        Map<String, MessageDigest> digests = new LinkedHashMap<>();
+        for(String algorithm : hashes.keySet()) {
+            try {
+                digests.put(algorithm, MessageDigest.getInstance(algorithm));
+            } catch(NoSuchAlgorithmException e) {
+                director.getLogger().log(ModDirectorSeverityLevel.WARN, "ModDirector/RemoteModMetadata",
+                        "CORE", "Hash algorithm %s not supported by JVM", algorithm);
+            }
+        }
+
+        if(digests.isEmpty()) {
+            director.getLogger().log(ModDirectorSeverityLevel.WARN, "ModDirector/RemoteModMetadata",
+                    "CORE", "All given hash algorithms are not supported by the JVM");
+        }
+        return new DownloadDigest(digests);
+    }
+
+    /**
+     * Verifies the hashes against a digest computed during the download, falling back to reading
+     * {@code file} if the digest could not be computed in one pass.
+     */
+    public HashResult checkHashes(DownloadDigest digest, Path file, ModDirector director) {
+        if(hashes == null) {
+            return HashResult.UNKNOWN;
+        }
+
+        if(digest.isEmpty() || !digest.isValid()) {
+            return checkHashes(file, director);
+        }
+
+        return compareHashes(digest.finish());
+    }
+
+    /**
+     * Compares already computed hex digests, keyed by algorithm, against the configured hashes.
+     */
+    public HashResult compareHashes(Map<String, String> computed) {
+        if(hashes == null || computed.isEmpty()) {
+            return HashResult.UNKNOWN;
+        }
+
+        for(Map.Entry<String, String> computedEntry : computed.entrySet()) {
+            if(!computedEntry.getValue().equalsIgnoreCase(hashes.get(computedEntry.getKey()))) {
+                return HashResult.UNMATCHED;
+            }
+        }
+        return HashResult.MATCHED;
+    }
+
     public HashResult checkHashes(Path file, ModDirector director) {
         if(hashes == null) {
             return HashResult.UNKNOWN;
         }
 
-        byte[] data;
+        DownloadDigest digest = createDigest(director);
+        if(digest.isEmpty()) {
+            return HashResult.UNKNOWN;
+        }
 
         try {
-            data = Files.readAllBytes(file);
+            digest.update(file);
         } catch(IOException e) {
             director.getLogger().logThrowable(ModDirectorSeverityLevel.WARN, "ModDirector/RemoteHash",
                     "CORE", e, "Failed to open %s for hash calculation, assuming hash does not match",
@@ -45,33 +107,14 @@ public class RemoteModMetadata {
             return HashResult.UNMATCHED;
         }
 
-        StringBuilder hashBuilder = new StringBuilder();
-        for(Map.Entry<String, String> hashEntry : hashes.entrySet()) {
-            hashBuilder.setLength(0);
-
-            try {
-                MessageDigest digest = MessageDigest.getInstance(hashEntry.getKey());
-
-                byte[] hash = digest.digest(data);
-                hashBuilder.append(new BigInteger(1, hash).toString(16));
-                while(hashBuilder.length() < 32) {
-                    hashBuilder.insert(0, '0');
-                }
-
-                if(!hashBuilder.toString().equals(hashEntry.getValue())) {
-                    return HashResult.UNMATCHED;
-                } else {
-                    return HashResult.MATCHED;
-                }
-            } catch(NoSuchAlgorithmException e) {
-                director.getLogger().log(ModDirectorSeverityLevel.WARN, "ModDirector/RemoteModMetadata",
-                        "CORE", "Hash algorithm %s not supported by JVM", hashEntry.getKey());
-            }
-        }
+        return checkHashes(digest, file, director);
+    }
 
-        director.getLogger().log(ModDirectorSeverityLevel.WARN, "ModDirector/RemoteModMetadata",
-                "CORE", "All given hash algorithms are not supported by the JVM");
-        return HashResult.UNKNOWN;
+    /**
+     * Returns the configured hashes keyed by algorithm, empty if there are none.
+     */
+    public Map<String, String> getHashes() {
+        return hashes != null ? hashes : Collections.emptyMap();
     }
 
     public PlatformSide getSide() {
@@ -12,6 +12,7 @@ public class ModpackConfiguration {
     private final String mcVersion;
     private final URL remoteVersion;
     private final boolean refuseLaunch;
+    private final ModpackNetworkConfiguration network;
 
     @JsonCreator
     public ModpackConfiguration(
@@ -20,7 +21,8 @@ public class ModpackConfiguration {
             @JsonProperty("localVersion") String localVersion,
             @JsonProperty("mcVersion") String mcVersion,
             @JsonProperty("remoteVersion") URL remoteVersion,
-            @JsonProperty("refuseLaunch") boolean refuseLaunch
+            @JsonProperty("refuseLaunch") boolean refuseLaunch,
+            @JsonProperty("network") ModpackNetworkConfiguration network
     ) {
         // Validate that packName doesn't contain any version patterns
         // With mcVersion field available, there's no reason to include versions in packName
@@ -45,6 +47,7 @@ public class ModpackConfiguration {
         this.mcVersion = mcVersion;
         this.remoteVersion = remoteVersion;
         this.refuseLaunch = refuseLaunch;
+        this.network = network != null ? network : ModpackNetworkConfiguration.createDefault();
     }
 
     /**
@@ -81,6 +84,10 @@ public class ModpackConfiguration {
         return refuseLaunch;
     }
 
+    public ModpackNetworkConfiguration network() {
+        return network;
+    }
+
     public static ModpackConfiguration createDefault() {
         return new ModpackConfiguration(
                 "Modpack",
@@ -88,7 +95,8 @@ public class ModpackConfiguration {
                 null,
                 null,
                 null,
-                false
+                false,
+                null
         );
     }
 }
@@ -0,0 +1,167 @@
+package net.jan.moddirector.core.configuration.modpack;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public class ModpackNetworkConfiguration {
+    private static final long DEFAULT_SEGMENT_THRESHOLD = 32L * 1024 * 1024;
+    private static final int DEFAULT_SEGMENTS = 4;
+    private static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+    private static final int DEFAULT_READ_TIMEOUT = 30000;
+    private static final int DEFAULT_RETRIES = 3;
+    private static final long DEFAULT_RETRY_BASE_DELAY = 500;
+    private static final long DEFAULT_MAX_RETRY_DELAY = 30000;
+    // As many as there are install workers, so a pack served by a single CDN keeps its full
+    // parallelism, adaptive downloads lower the limit for hosts which can not keep up
+    private static final int DEFAULT_MAX_DOWNLOADS_PER_HOST = 16;
+    private static final int DEFAULT_INITIAL_DOWNLOADS_PER_HOST = 16;
+
+    private final long segmentThreshold;
+    private final int segments;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final int retries;
+    private final long retryBaseDelay;
+    private final long maxRetryDelay;
+    private final int maxDownloadsPerHost;
+    private final int initialDownloadsPerHost;
+    private final boolean adaptiveDownloads;
+    private final long maxBandwidth;
+    private final long remoteDocumentMaxAge;
+
+    @JsonCreator
+    public ModpackNetworkConfiguration(
+            @JsonProperty("segmentThreshold") Long segmentThreshold,
+            @JsonProperty("segments") Integer segments,
+            @JsonProperty("connectTimeout") Integer connectTimeout,
+            @JsonProperty("readTimeout") Integer readTimeout,
+            @JsonProperty("retries") Integer retries,
+            @JsonProperty("retryBaseDelay") Long retryBaseDelay,
+            @JsonProperty("maxRetryDelay") Long maxRetryDelay,
+            @JsonProperty("maxDownloadsPerHost") Integer maxDownloadsPerHost,
+            @JsonProperty("initialDownloadsPerHost") Integer initialDownloadsPerHost,
+            @JsonProperty("adaptiveDownloads") Boolean adaptiveDownloads,
+            @JsonProperty("maxBandwidth") Long maxBandwidth,
+            @JsonProperty("remoteDocumentMaxAge") Long remoteDocumentMaxAge
+    ) {
+        this.segmentThreshold = segmentThreshold != null ? segmentThreshold : DEFAULT_SEGMENT_THRESHOLD;
+        this.segments = segments != null ? Math.max(1, segments) : DEFAULT_SEGMENTS;
+        this.connectTimeout = connectTimeout != null ? Math.max(0, connectTimeout) : DEFAULT_CONNECT_TIMEOUT;
+        this.readTimeout = readTimeout != null ? Math.max(0, readTimeout) : DEFAULT_READ_TIMEOUT;
+        this.retries = retries != null ? Math.max(0, retries) : DEFAULT_RETRIES;
+        this.retryBaseDelay = retryBaseDelay != null ? Math.max(0, retryBaseDelay) : DEFAULT_RETRY_BASE_DELAY;
+        this.maxRetryDelay = maxRetryDelay != null ? Math.max(0, maxRetryDelay) : DEFAULT_MAX_RETRY_DELAY;
+        this.maxDownloadsPerHost = maxDownloadsPerHost != null ?
+                Math.max(1, maxDownloadsPerHost) : DEFAULT_MAX_DOWNLOADS_PER_HOST;
+        this.initialDownloadsPerHost = Math.min(this.maxDownloadsPerHost, initialDownloadsPerHost != null ?
+                Math.max(1, initialDownloadsPerHost) : DEFAULT_INITIAL_DOWNLOADS_PER_HOST);
+        this.adaptiveDownloads = adaptiveDownloads != null ? adaptiveDownloads : true;
+        this.maxBandwidth = maxBandwidth != null ? Math.max(0, maxBandwidth) : 0;
+        this.remoteDocumentMaxAge = remoteDocumentMaxAge != null ? Math.max(0, remoteDocumentMaxAge) : 0;
+    }
+
+    /**
+     * @return the size in bytes from which on URL downloads are split into concurrently fetched ranges
+     */
+    public long segmentThreshold() {
+        return segmentThreshold;
+    }
+
+    /**
+     * @return the number of ranges a segmented download is split into, 1 disables segmented downloads
+     */
+    public int segments() {
+        return segments;
+    }
+
+    /**
+     * @return the time in milliseconds to wait for a connection to be established, 0 waits forever
+     */
+    public int connectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * @return the time in milliseconds to wait for data on an established connection, 0 waits forever
+     */
+    public int readTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * @return how often a failed GET request is retried
+     */
+    public int retries() {
+        return retries;
+    }
+
+    /**
+     * @return the delay in milliseconds before the first retry, doubled with every further retry
+     */
+    public long retryBaseDelay() {
+        return retryBaseDelay;
+    }
+
+    /**
+     * @return the longest delay in milliseconds before a retry, servers asking for a longer
+     *         {@code Retry-After} are not retried
+     */
+    public long maxRetryDelay() {
+        return maxRetryDelay;
+    }
+
+    /**
+     * @return the most downloads from a single host which may run at the same time
+     */
+    public int maxDownloadsPerHost() {
+        return maxDownloadsPerHost;
+    }
+
+    /**
+     * @return the number of downloads from a single host which may run at the same time before the
+     *         limit has been adapted to the host, unused if adaptive downloads are off
+     */
+    public int initialDownloadsPerHost() {
+        return initialDownloadsPerHost;
+    }
+
+    /**
+     * @return whether the per-host limit is adjusted to the observed throughput and errors, if not
+     *         every host gets {@link #maxDownloadsPerHost()}
+     */
+    public boolean adaptiveDownloads() {
+        return adaptiveDownloads;
+    }
+
+    /**
+     * @return the combined rate in bytes per second all downloads are limited to, 0 for no limit
+     */
+    public long maxBandwidth() {
+        return maxBandwidth;
+    }
+
+    /**
+     * @return the time in milliseconds a cached remote configuration or remote version is used without
+     *         asking the server, 0 revalidates it on every boot
+     */
+    public long remoteDocumentMaxAge() {
+        return remoteDocumentMaxAge;
+    }
+
+    public static ModpackNetworkConfiguration createDefault() {
+        return new ModpackNetworkConfiguration(
+                null,
+                null,
+                null,
+                null,
+                null,
+                null,
+                null,
+                null,
+                null,
+                null,
+                null,
+                null
+        );
+    }
+}
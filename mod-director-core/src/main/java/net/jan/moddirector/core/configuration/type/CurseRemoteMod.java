@@ -5,27 +5,30 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.databind.JsonMappingException;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
 import net.jan.moddirector.core.ModDirector;
 import net.jan.moddirector.core.configuration.*;
 import net.jan.moddirector.core.exception.ModDirectorException;
 import net.jan.moddirector.core.manage.ProgressCallback;
-import net.jan.moddirector.core.util.IOOperation;
+import net.jan.moddirector.core.util.DownloadDigest;
+import net.jan.moddirector.core.util.ResumableDownload;
 import net.jan.moddirector.core.util.WebClient;
 import net.jan.moddirector.core.util.WebGetResponse;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 public class CurseRemoteMod extends ModDirectorRemoteMod {
+    // The bulk endpoint accepts larger lists, but keeping chunks moderate keeps a single failing
+    // request from taking the whole pack down with it.
+    private static final int BATCH_SIZE = 100;
+
     private final int addonId;
     private final int fileId;
     private final String fileName;
@@ -50,6 +53,18 @@ public class CurseRemoteMod extends ModDirectorRemoteMod {
         this.fileName = fileName;
     }
 
+    public int getAddonId() {
+        return addonId;
+    }
+
+    public int getFileId() {
+        return fileId;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
     @Override
     public String remoteType() {
         return "Curse";
@@ -61,12 +76,11 @@ public class CurseRemoteMod extends ModDirectorRemoteMod {
     }
 
     @Override
-    public void performInstall(Path targetFile, ProgressCallback progressCallback, ModDirector director, RemoteModInformation information) throws ModDirectorException {
+    public void performInstall(Path targetFile, ProgressCallback progressCallback, ModDirector director, RemoteModInformation information, DownloadDigest digest) throws ModDirectorException {
 
-        try(WebGetResponse response = WebClient.get(this.information.downloadUrl)) {
+        try {
             progressCallback.setSteps(1);
-            IOOperation.copy(response.getInputStream(), Files.newOutputStream(targetFile), progressCallback,
-                    response.getStreamSize());
+            ResumableDownload.download(this.information.downloadUrl, targetFile, progressCallback, digest);
         } catch(IOException e) {
             throw new ModDirectorException("Failed to download file", e);
         }
@@ -80,16 +94,47 @@ public class CurseRemoteMod extends ModDirectorRemoteMod {
         return this.information != null ? this.information.downloadUrl : null;
     }
 
-    @Override
-    public RemoteModInformation queryInformation() throws ModDirectorException {
+    /**
+     * Resolves the file information of all given mods using the bulk "get files" endpoint of the
+     * Curse API, {@link #BATCH_SIZE} files per request. Mods whose file was not part of a bulk
+     * response are left untouched and still query individually in {@link #queryInformation()}.
+     */
+    public static void queryInformationBatch(List<CurseRemoteMod> mods) throws ModDirectorException {
+        Map<Integer, List<CurseRemoteMod>> modsByFileId = new LinkedHashMap<>();
+        for(CurseRemoteMod mod : mods) {
+            modsByFileId.computeIfAbsent(mod.fileId, k -> new ArrayList<>()).add(mod);
+        }
+
+        List<Integer> fileIds = new ArrayList<>(modsByFileId.keySet());
+        for(int start = 0; start < fileIds.size(); start += BATCH_SIZE) {
+            List<Integer> chunk = fileIds.subList(start, Math.min(start + BATCH_SIZE, fileIds.size()));
+
+            for(CurseAddonFileInformation fileInformation : queryFiles(chunk)) {
+                List<CurseRemoteMod> owners = modsByFileId.get(fileInformation.id);
+                if(owners == null) {
+                    continue;
+                }
+
+                for(CurseRemoteMod owner : owners) {
+                    if(owner.addonId == fileInformation.modId) {
+                        owner.information = fileInformation;
+                    }
+                }
+            }
+        }
+    }
+
+    private static List<CurseAddonFileInformation> queryFiles(List<Integer> fileIds) throws ModDirectorException {
         try {
-            URL apiUrl = new URL(String.format("https://api.curse.tools/v1/cf/mods/%s/files/%s", addonId, fileId));
-            WebGetResponse response = WebClient.get(apiUrl);
-            JsonObject jsonObject;
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(response.getInputStream(), StandardCharsets.UTF_8))) {
-                jsonObject = new JsonParser().parse(reader).getAsJsonObject().getAsJsonObject("data");
+            URL apiUrl = new URL("https://api.curse.tools/v1/cf/mods/files");
+            byte[] body = ConfigurationController.OBJECT_MAPPER.writeValueAsBytes(
+                    Collections.singletonMap("fileIds", fileIds));
+
+            try(WebGetResponse response = WebClient.post(apiUrl, "application/json", body)) {
+                CurseAddonFilesResponse filesResponse = ConfigurationController.OBJECT_MAPPER.readValue(
+                        response.getInputStream(), CurseAddonFilesResponse.class);
+                return filesResponse.data != null ? filesResponse.data : Collections.emptyList();
             }
-            information = ConfigurationController.OBJECT_MAPPER.readValue(jsonObject.toString(), CurseAddonFileInformation.class);
         } catch (MalformedURLException e) {
             throw new ModDirectorException("Failed to create Curse API URL", e);
         } catch (JsonParseException e) {
@@ -99,16 +144,90 @@ public class CurseRemoteMod extends ModDirectorRemoteMod {
         } catch (IOException e) {
             throw new ModDirectorException("Failed to open connection to Curse", e);
         }
+    }
+
+    @Override
+    public RemoteModInformation queryInformation() throws ModDirectorException {
+        if(information == null) {
+            queryFileInformation();
+        }
+
+        Map<String, String> hashes = new LinkedHashMap<>();
+        if(information.hashes != null) {
+            for(CurseFileHash hash : information.hashes) {
+                String algorithm = hash.algorithmName();
+                if(algorithm != null && hash.value != null) {
+                    hashes.put(algorithm, hash.value);
+                }
+            }
+        }
 
         if(fileName != null) {
-            return new RemoteModInformation(fileName, fileName);
+            return new RemoteModInformation(fileName, fileName, information.downloadUrl, information.fileLength, hashes);
         } else {
-            return new RemoteModInformation(information.displayName, information.fileName);
+            return new RemoteModInformation(information.displayName, information.fileName, information.downloadUrl,
+                    information.fileLength, hashes);
         }
     }
 
+    @Override
+    public boolean restoreInformation(RemoteModInformation information) {
+        if(information.getDownloadUrl() == null) {
+            return false;
+        }
+
+        CurseAddonFileInformation restored = new CurseAddonFileInformation();
+        restored.id = fileId;
+        restored.modId = addonId;
+        restored.displayName = information.getDisplayName();
+        restored.fileName = information.getTargetFilename();
+        restored.downloadUrl = information.getDownloadUrl();
+        restored.fileLength = information.getContentLength();
+        this.information = restored;
+        return true;
+    }
+
+    private void queryFileInformation() throws ModDirectorException {
+        try {
+            URL apiUrl = new URL(String.format("https://api.curse.tools/v1/cf/mods/%s/files/%s", addonId, fileId));
+            try(WebGetResponse response = WebClient.get(apiUrl)) {
+                information = ConfigurationController.OBJECT_MAPPER.readValue(
+                        response.getInputStream(), CurseAddonFileResponse.class).data;
+            }
+            if(information == null) {
+                throw new ModDirectorException("Curse did not return information for file " + fileId + " of mod " + addonId);
+            }
+        } catch (MalformedURLException e) {
+            throw new ModDirectorException("Failed to create Curse API URL", e);
+        } catch (JsonParseException e) {
+            throw new ModDirectorException("Failed to parse JSON response from Curse", e);
+        } catch (JsonMappingException e) {
+            throw new ModDirectorException("Failed to map JSON response from Curse, did they change their API?", e);
+        } catch (IOException e) {
+            throw new ModDirectorException("Failed to open connection to Curse", e);
+        }
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    private static class CurseAddonFileResponse {
+        @JsonProperty
+        private CurseAddonFileInformation data;
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    private static class CurseAddonFilesResponse {
+        @JsonProperty
+        private List<CurseAddonFileInformation> data;
+    }
+
     @JsonIgnoreProperties(ignoreUnknown = true)
     private static class CurseAddonFileInformation {
+        @JsonProperty
+        private int id;
+
+        @JsonProperty
+        private int modId;
+
         @JsonProperty
         private String displayName;
 
@@ -117,5 +236,31 @@ public class CurseRemoteMod extends ModDirectorRemoteMod {
 
         @JsonProperty
         private URL downloadUrl;
+
+        @JsonProperty
+        private long fileLength = -1;
+
+        @JsonProperty
+        private List<CurseFileHash> hashes;
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    private static class CurseFileHash {
+        @JsonProperty
+        private String value;
+
+        @JsonProperty
+        private int algo;
+
+        private String algorithmName() {
+            switch(algo) {
+                case 1:
+                    return "SHA-1";
+                case 2:
+                    return "MD5";
+                default:
+                    return null;
+            }
+        }
     }
 }
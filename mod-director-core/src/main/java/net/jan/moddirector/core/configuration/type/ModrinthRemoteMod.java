@@ -4,24 +4,43 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import net.jan.moddirector.core.ModDirector;
 import net.jan.moddirector.core.configuration.*;
 import net.jan.moddirector.core.exception.ModDirectorException;
 import net.jan.moddirector.core.manage.ProgressCallback;
-import net.jan.moddirector.core.util.IOOperation;
+import net.jan.moddirector.core.util.DownloadDigest;
+import net.jan.moddirector.core.util.ResumableDownload;
 import net.jan.moddirector.core.util.WebClient;
 import net.jan.moddirector.core.util.WebGetResponse;
 
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.file.Files;
+import java.net.URLEncoder;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 public class ModrinthRemoteMod extends ModDirectorRemoteMod {
+    // Ids are passed in the query string, so keep the URL well below common length limits.
+    private static final int BATCH_SIZE = 100;
+
+    // Modrinth hash names to Java algorithm names
+    private static final Map<String, String> HASH_ALGORITHMS = new HashMap<>();
+
+    static {
+        HASH_ALGORITHMS.put("sha1", "SHA-1");
+        HASH_ALGORITHMS.put("sha512", "SHA-512");
+    }
+
     private final String addonId;
     private final String fileId;
     private final String fileName;
@@ -47,6 +66,18 @@ public class ModrinthRemoteMod extends ModDirectorRemoteMod {
         this.fileName = fileName;
     }
 
+    public String getAddonId() {
+        return addonId;
+    }
+
+    public String getFileId() {
+        return fileId;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
     @Override
     public String remoteType() {
         return "Modrinth";
@@ -58,11 +89,10 @@ public class ModrinthRemoteMod extends ModDirectorRemoteMod {
     }
 
     @Override
-    public void performInstall(Path targetFile, ProgressCallback progressCallback, ModDirector director, RemoteModInformation information) throws ModDirectorException {
-        try (WebGetResponse response = WebClient.get(new URL(fileInformation.files.get(0).url))) {
+    public void performInstall(Path targetFile, ProgressCallback progressCallback, ModDirector director, RemoteModInformation information, DownloadDigest digest) throws ModDirectorException {
+        try {
             progressCallback.setSteps(1);
-            IOOperation.copy(response.getInputStream(), Files.newOutputStream(targetFile), progressCallback,
-                    response.getStreamSize());
+            ResumableDownload.download(new URL(fileInformation.files.get(0).url), targetFile, progressCallback, digest);
         } catch (IOException e) {
             throw new ModDirectorException("Failed to download file", e);
         }
@@ -81,12 +111,151 @@ public class ModrinthRemoteMod extends ModDirectorRemoteMod {
         }
     }
 
+    /**
+     * Resolves the versions and project titles of all given mods using the multi-id endpoints of the
+     * Modrinth API, {@link #BATCH_SIZE} ids per request. A version is only taken from the bulk response
+     * if it belongs to the project the mod is configured with, like the per-project endpoint enforces.
+     * Anything the bulk responses did not contain or which did not match (for example versions
+     * referenced by version number instead of id) is still queried individually in
+     * {@link #queryInformation()}.
+     */
+    public static void queryInformationBatch(List<ModrinthRemoteMod> mods) throws ModDirectorException {
+        Map<String, List<ModrinthRemoteMod>> modsByVersionId = new LinkedHashMap<>();
+        Map<String, List<ModrinthRemoteMod>> modsByProjectId = new LinkedHashMap<>();
+        for(ModrinthRemoteMod mod : mods) {
+            modsByVersionId.computeIfAbsent(mod.fileId, k -> new ArrayList<>()).add(mod);
+            modsByProjectId.computeIfAbsent(mod.addonId.toLowerCase(Locale.ROOT), k -> new ArrayList<>()).add(mod);
+        }
+
+        // Projects may be referenced by id or slug, the endpoint accepts both. Versions only carry the
+        // project id, so the projects are resolved first.
+        Map<ModrinthRemoteMod, String> projectIds = new IdentityHashMap<>();
+        List<String> projectKeys = new ArrayList<>();
+        for(List<ModrinthRemoteMod> owners : modsByProjectId.values()) {
+            projectKeys.add(owners.get(0).addonId);
+        }
+
+        for(int start = 0; start < projectKeys.size(); start += BATCH_SIZE) {
+            List<String> chunk = projectKeys.subList(start, Math.min(start + BATCH_SIZE, projectKeys.size()));
+
+            for(ModrinthProjectInformation project :
+                    queryBatch("projects", chunk, ModrinthProjectInformation.class)) {
+                for(String key : new String[] {project.id, project.slug}) {
+                    List<ModrinthRemoteMod> owners = key == null ? null :
+                            modsByProjectId.get(key.toLowerCase(Locale.ROOT));
+                    if(owners == null) {
+                        continue;
+                    }
+
+                    for(ModrinthRemoteMod owner : owners) {
+                        owner.projectTitle = project.title;
+                        projectIds.put(owner, project.id);
+                    }
+                }
+            }
+        }
+
+        List<String> versionIds = new ArrayList<>(modsByVersionId.keySet());
+        for(int start = 0; start < versionIds.size(); start += BATCH_SIZE) {
+            List<String> chunk = versionIds.subList(start, Math.min(start + BATCH_SIZE, versionIds.size()));
+
+            for(ModrinthAddonFileInformation version :
+                    queryBatch("versions", chunk, ModrinthAddonFileInformation.class)) {
+                List<ModrinthRemoteMod> owners = modsByVersionId.get(version.id);
+                if(owners == null || version.files == null || version.files.isEmpty() || version.projectId == null) {
+                    continue;
+                }
+
+                for(ModrinthRemoteMod owner : owners) {
+                    if(version.projectId.equalsIgnoreCase(owner.addonId)
+                            || version.projectId.equalsIgnoreCase(projectIds.get(owner))) {
+                        owner.fileInformation = version;
+                    }
+                }
+            }
+        }
+    }
+
+    private static <T> List<T> queryBatch(String endpoint, List<String> ids, Class<T> type)
+            throws ModDirectorException {
+        try {
+            String encodedIds = URLEncoder.encode(
+                    ConfigurationController.OBJECT_MAPPER.writeValueAsString(ids), "UTF-8");
+            URL apiUrl = new URL(String.format("https://api.modrinth.com/v2/%s?ids=%s", endpoint, encodedIds));
+            JavaType targetType = ConfigurationController.OBJECT_MAPPER.getTypeFactory()
+                    .constructCollectionType(List.class, type);
+
+            try(WebGetResponse response = WebClient.get(apiUrl)) {
+                return ConfigurationController.OBJECT_MAPPER.readValue(response.getInputStream(), targetType);
+            }
+        } catch (MalformedURLException e) {
+            throw new ModDirectorException("Failed to create Modrinth API URL", e);
+        } catch (JsonParseException e) {
+            throw new ModDirectorException("Failed to parse JSON response from Modrinth", e);
+        } catch (JsonMappingException e) {
+            throw new ModDirectorException("Failed to map JSON response from Modrinth, did they change their API?", e);
+        } catch (IOException e) {
+            throw new ModDirectorException("Failed to open connection to Modrinth", e);
+        }
+    }
+
     @Override
     public RemoteModInformation queryInformation() throws ModDirectorException {
-        queryTitle();
+        if(projectTitle == null) {
+            queryTitle();
+        }
+
+        if(fileInformation == null) {
+            queryFileInformation();
+        }
+
+        ModrinthAddonFileInformation.ModrinthFile file = fileInformation.files.get(0);
+        String displayName = projectTitle != null ? projectTitle : (fileName != null ? fileName : file.filename);
+
+        Map<String, String> hashes = new LinkedHashMap<>();
+        if(file.hashes != null) {
+            file.hashes.forEach((name, value) -> {
+                String algorithm = HASH_ALGORITHMS.get(name);
+                if(algorithm != null && value != null) {
+                    hashes.put(algorithm, value);
+                }
+            });
+        }
+
+        try {
+            return new RemoteModInformation(displayName, file.filename, new URL(file.url), file.size, hashes);
+        } catch(MalformedURLException e) {
+            throw new ModDirectorException("Modrinth returned an invalid download URL", e);
+        }
+    }
+
+    @Override
+    public boolean restoreInformation(RemoteModInformation information) {
+        if(information.getDownloadUrl() == null) {
+            return false;
+        }
+
+        ModrinthAddonFileInformation.ModrinthFile file = new ModrinthAddonFileInformation.ModrinthFile();
+        file.url = information.getDownloadUrl().toExternalForm();
+        file.filename = information.getTargetFilename();
+        file.size = information.getContentLength();
+
+        ModrinthAddonFileInformation restored = new ModrinthAddonFileInformation();
+        restored.id = fileId;
+        restored.files = Collections.singletonList(file);
+
+        this.fileInformation = restored;
+        this.projectTitle = information.getDisplayName();
+        return true;
+    }
+
+    private void queryFileInformation() throws ModDirectorException {
         try {
             URL apiUrl = new URL(String.format("https://api.modrinth.com/v2/project/%s/version/%s", addonId, fileId));
-            fileInformation = ConfigurationController.OBJECT_MAPPER.readValue(apiUrl, ModrinthAddonFileInformation.class);
+            try(WebGetResponse response = WebClient.get(apiUrl)) {
+                fileInformation = ConfigurationController.OBJECT_MAPPER.readValue(
+                        response.getInputStream(), ModrinthAddonFileInformation.class);
+            }
         } catch (MalformedURLException e) {
             throw new ModDirectorException("Failed to create Modrinth API URL", e);
         } catch (JsonParseException e) {
@@ -96,17 +265,16 @@ public class ModrinthRemoteMod extends ModDirectorRemoteMod {
         } catch (IOException e) {
             throw new ModDirectorException("Failed to open connection to Modrinth", e);
         }
-
-        String displayName = projectTitle != null ? projectTitle : (fileName != null ? fileName : fileInformation.files.get(0).filename);
-
-        return new RemoteModInformation(displayName, fileInformation.files.get(0).filename);
     }
 
     private void queryTitle() throws ModDirectorException {
         try {
             URL projectUrl = new URL(String.format("https://api.modrinth.com/v2/project/%s", addonId));
-            ModrinthProjectInformation projectInformation = ConfigurationController.OBJECT_MAPPER.readValue(projectUrl, ModrinthProjectInformation.class);
-            projectTitle = projectInformation.title;
+            try(WebGetResponse response = WebClient.get(projectUrl)) {
+                ModrinthProjectInformation projectInformation = ConfigurationController.OBJECT_MAPPER.readValue(
+                        response.getInputStream(), ModrinthProjectInformation.class);
+                projectTitle = projectInformation.title;
+            }
         } catch (MalformedURLException e) {
             throw new ModDirectorException("Failed to create Modrinth project URL", e);
         } catch (JsonParseException e) {
@@ -120,6 +288,12 @@ public class ModrinthRemoteMod extends ModDirectorRemoteMod {
 
     @JsonIgnoreProperties(ignoreUnknown = true)
     private static class ModrinthAddonFileInformation {
+        @JsonProperty
+        private String id;
+
+        @JsonProperty("project_id")
+        private String projectId;
+
         @JsonProperty("files")
         private List<ModrinthFile> files;
 
@@ -130,11 +304,23 @@ public class ModrinthRemoteMod extends ModDirectorRemoteMod {
 
             @JsonProperty
             private String filename;
+
+            @JsonProperty
+            private long size = -1;
+
+            @JsonProperty
+            private Map<String, String> hashes;
         }
     }
 
     @JsonIgnoreProperties(ignoreUnknown = true)
     private static class ModrinthProjectInformation {
+        @JsonProperty
+        private String id;
+
+        @JsonProperty
+        private String slug;
+
         @JsonProperty
         private String title;
     }
@@ -7,24 +7,33 @@ import net.jan.moddirector.core.configuration.InstallationPolicy;
 import net.jan.moddirector.core.configuration.ModDirectorRemoteMod;
 import net.jan.moddirector.core.configuration.RemoteModInformation;
 import net.jan.moddirector.core.configuration.RemoteModMetadata;
+import net.jan.moddirector.core.configuration.modpack.ModpackNetworkConfiguration;
 import net.jan.moddirector.core.exception.ModDirectorException;
 import net.jan.moddirector.core.manage.ProgressCallback;
 import net.jan.moddirector.core.manage.check.StopModReposts;
+import net.jan.moddirector.core.util.DownloadDigest;
 import net.jan.moddirector.core.util.IOOperation;
+import net.jan.moddirector.core.util.SegmentedDownload;
 import net.jan.moddirector.core.util.WebClient;
 import net.jan.moddirector.core.util.WebGetResponse;
+import org.apache.commons.io.input.BoundedInputStream;
 
 import java.io.*;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
 public class UrlRemoteMod extends ModDirectorRemoteMod {
+    // Pages which are scanned for "follows" are held in memory, anything this large is not a html page
+    private static final int MAX_FOLLOW_PAGE_SIZE = 8 * 1024 * 1024;
+
     private final String fileName;
     private final URL url;
     private final String[] follows;
@@ -47,6 +56,18 @@ public class UrlRemoteMod extends ModDirectorRemoteMod {
         this.follows = follows == null ? new String[0] : follows;
     }
 
+    public String getFileName() {
+        return fileName;
+    }
+
+    public URL getUrl() {
+        return url;
+    }
+
+    public String[] getFollows() {
+        return follows;
+    }
+
     @Override
     public String remoteType() {
         return url.toExternalForm();
@@ -58,8 +79,9 @@ public class UrlRemoteMod extends ModDirectorRemoteMod {
     }
 
     @Override
-    public void performInstall(Path targetFile, ProgressCallback progressCallback, ModDirector director, RemoteModInformation information) throws ModDirectorException {
-        byte[] data = null;
+    public void performInstall(Path targetFile, ProgressCallback progressCallback, ModDirector director, RemoteModInformation information, DownloadDigest digest) throws ModDirectorException {
+        String html = null;
+        ModpackNetworkConfiguration network = director.getConfigurationController().getNetworkConfiguration();
 
         progressCallback.setSteps(follows.length + 1);
 
@@ -68,8 +90,6 @@ public class UrlRemoteMod extends ModDirectorRemoteMod {
             if(i < 0) {
                 urlToFollow = url;
             } else {
-                String html = new String(data);
-
                 int startIndex = html.indexOf(follows[i]);
                 if(startIndex < 0) {
                     throw new ModDirectorException("Unable to find follow string " + follows[i] + " in html from " +
@@ -109,9 +129,21 @@ public class UrlRemoteMod extends ModDirectorRemoteMod {
             StopModReposts.check(ModDirector.getInstance(), urlToFollow);
 
             try(WebGetResponse response = WebClient.get(urlToFollow)) {
-                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-                IOOperation.copy(response.getInputStream(), outputStream, progressCallback, response.getStreamSize());
-                data = outputStream.toByteArray();
+                if(i + 1 < follows.length) {
+                    html = readFollowPage(response, urlToFollow, progressCallback);
+                } else if(SegmentedDownload.shouldSegment(response, network.segmentThreshold(), network.segments())) {
+                    SegmentedDownload.download(urlToFollow, response, targetFile, network.segments(), progressCallback,
+                            director.getInstallScheduler());
+                    // Segments arrive out of order and can not be digested while writing
+                    digest.invalidate();
+                } else {
+                    // Stream straight to disk, the final file may be far larger than the available heap
+                    try(FileChannel channel = FileChannel.open(targetFile, StandardOpenOption.CREATE,
+                            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                        IOOperation.copy(response.getInputStream(), channel, digest, progressCallback,
+                                0, response.getStreamSize());
+                    }
+                }
             } catch(IOException e) {
                 throw new ModDirectorException("Failed to follow URLs to download file", e);
             }
@@ -120,10 +152,9 @@ public class UrlRemoteMod extends ModDirectorRemoteMod {
         }
 
         try {
-            Files.write(targetFile, data);
-
             if(this.getInstallationPolicy().shouldExtract()) {
-                try(ZipInputStream zipInputStream = new ZipInputStream(new ByteArrayInputStream(data))) {
+                try(ZipInputStream zipInputStream = new ZipInputStream(
+                        new BufferedInputStream(Files.newInputStream(targetFile)))) {
                     byte[] buffer = new byte[8192];
                     ZipEntry zipEntry = zipInputStream.getNextEntry();
                     while(zipEntry != null) {
@@ -160,6 +191,23 @@ public class UrlRemoteMod extends ModDirectorRemoteMod {
         progressCallback.done();
     }
 
+    private static String readFollowPage(WebGetResponse response, URL pageUrl, ProgressCallback progressCallback)
+            throws IOException {
+        if(response.getStreamSize() > MAX_FOLLOW_PAGE_SIZE) {
+            throw new IOException("Page " + pageUrl + " is too large to follow (" + response.getStreamSize() + " bytes)");
+        }
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        IOOperation.copy(new BoundedInputStream(response.getInputStream(), MAX_FOLLOW_PAGE_SIZE + 1), outputStream,
+                progressCallback, response.getStreamSize());
+
+        if(outputStream.size() > MAX_FOLLOW_PAGE_SIZE) {
+            throw new IOException("Page " + pageUrl + " is too large to follow (more than " + MAX_FOLLOW_PAGE_SIZE + " bytes)");
+        }
+
+        return new String(outputStream.toByteArray());
+    }
+
     @Override
     public URL validationUrl(RemoteModInformation information) {
         // The declared URL. For entries that use "follows" (HTML redirect scraping) this is the
@@ -0,0 +1,437 @@
+package net.jan.moddirector.core.manage;
+
+import net.jan.moddirector.core.ModDirector;
+import net.jan.moddirector.core.configuration.InstallationPolicy;
+import net.jan.moddirector.core.configuration.ModDirectorRemoteMod;
+import net.jan.moddirector.core.configuration.RemoteModMetadata;
+import net.jan.moddirector.core.configuration.type.CurseRemoteMod;
+import net.jan.moddirector.core.configuration.type.ModifyMod;
+import net.jan.moddirector.core.configuration.type.ModrinthRemoteMod;
+import net.jan.moddirector.core.configuration.type.UrlRemoteMod;
+import net.jan.moddirector.core.logging.ModDirectorSeverityLevel;
+import net.jan.moddirector.core.platform.PlatformSide;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary snapshot of the parsed mod configurations and modify operations, keyed by the digest
+ * {@link PackFingerprint} computes over the configuration directory. While the configuration is
+ * unchanged, the snapshot is read back instead of parsing every configuration file with Jackson.
+ * <p>
+ * Packs using {@code .remote.json} configurations are never snapshotted, and neither is a load
+ * which failed for any configuration. Like the other disk caches this class is fail-open: any
+ * problem simply results in the configurations being parsed. The snapshot is stored in the snap
+ * directory as {@code .configuration-snapshot.bin}.
+ */
+public class ConfigurationSnapshot {
+    private static final String LOG_DOMAIN = "ModDirector/ConfigurationSnapshot";
+    private static final String SNAPSHOT_FILE = ".configuration-snapshot.bin";
+
+    private static final int MAGIC = 0x4D444353;
+    // Must be raised whenever the format or the meaning of a configuration property changes
+    private static final int FORMAT_VERSION = 1;
+
+    private static final byte TYPE_CURSE = 0;
+    private static final byte TYPE_MODRINTH = 1;
+    private static final byte TYPE_URL = 2;
+
+    private static final byte VALUE_NULL = 0;
+    private static final byte VALUE_STRING = 1;
+    private static final byte VALUE_BOOLEAN = 2;
+    private static final byte VALUE_INTEGER = 3;
+    private static final byte VALUE_LONG = 4;
+    private static final byte VALUE_BIG_INTEGER = 5;
+    private static final byte VALUE_DOUBLE = 6;
+    private static final byte VALUE_LIST = 7;
+    private static final byte VALUE_MAP = 8;
+
+    private final ModDirector director;
+    private final Path configurationDirectory;
+
+    private String configurationDigest;
+
+    public ConfigurationSnapshot(ModDirector director, Path configurationDirectory) {
+        this.director = director;
+        this.configurationDirectory = configurationDirectory;
+    }
+
+    /**
+     * Reads the snapshot if it was taken from exactly the current configuration, or returns
+     * {@code null} if the configuration has to be parsed. Never throws.
+     */
+    public Contents load() {
+        try {
+            configurationDigest = PackFingerprint.digestConfiguration(configurationDirectory);
+            Path snapshotFile = SnapDirectory.resolve(director).resolve(SNAPSHOT_FILE);
+            if(configurationDigest == null || !Files.isRegularFile(snapshotFile)) {
+                return null;
+            }
+
+            try(DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile)))) {
+                if(input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION
+                        || !configurationDigest.equals(input.readUTF())) {
+                    return null;
+                }
+
+                Contents contents = new Contents();
+                int modCount = input.readInt();
+                for(int i = 0; i < modCount; i++) {
+                    contents.mods.add(readMod(input));
+                }
+
+                int modificationCount = input.readInt();
+                for(int i = 0; i < modificationCount; i++) {
+                    contents.modifications.add(readModification(input));
+                }
+
+                director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
+                        "CORE", "Loaded %d mods and %d modify operations from the configuration snapshot",
+                        modCount, modificationCount);
+                return contents;
+            }
+        } catch(Exception e) {
+            director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
+                    "CORE", "Failed to read configuration snapshot: %s", String.valueOf(e.getMessage()));
+            return null;
+        }
+    }
+
+    /**
+     * Stores the configurations parsed after {@link #load()} missed, for the configuration digested
+     * by it. Never throws.
+     */
+    public void store(List<ModDirectorRemoteMod> mods, List<ModifyMod> modifications) {
+        if(configurationDigest == null) {
+            return;
+        }
+
+        try {
+            Path snapshotFile = SnapDirectory.resolve(director).resolve(SNAPSHOT_FILE);
+            Path tempFile = snapshotFile.resolveSibling(SNAPSHOT_FILE + ".tmp");
+            Files.createDirectories(snapshotFile.getParent());
+
+            try(DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                output.writeInt(MAGIC);
+                output.writeInt(FORMAT_VERSION);
+                output.writeUTF(configurationDigest);
+
+                output.writeInt(mods.size());
+                for(ModDirectorRemoteMod mod : mods) {
+                    writeMod(output, mod);
+                }
+
+                output.writeInt(modifications.size());
+                for(ModifyMod modification : modifications) {
+                    writeModification(output, modification);
+                }
+            } catch(IOException | RuntimeException e) {
+                Files.deleteIfExists(tempFile);
+                throw e;
+            }
+
+            Files.move(tempFile, snapshotFile, StandardCopyOption.REPLACE_EXISTING);
+        } catch(Exception e) {
+            director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
+                    "CORE", "Failed to write configuration snapshot: %s", String.valueOf(e.getMessage()));
+        }
+    }
+
+    private static void writeMod(DataOutputStream output, ModDirectorRemoteMod mod) throws IOException {
+        if(mod instanceof CurseRemoteMod) {
+            CurseRemoteMod curseMod = (CurseRemoteMod) mod;
+            output.writeByte(TYPE_CURSE);
+            output.writeInt(curseMod.getAddonId());
+            output.writeInt(curseMod.getFileId());
+            writeString(output, curseMod.getFileName());
+        } else if(mod instanceof ModrinthRemoteMod) {
+            ModrinthRemoteMod modrinthMod = (ModrinthRemoteMod) mod;
+            output.writeByte(TYPE_MODRINTH);
+            writeString(output, modrinthMod.getAddonId());
+            writeString(output, modrinthMod.getFileId());
+            writeString(output, modrinthMod.getFileName());
+        } else if(mod instanceof UrlRemoteMod) {
+            UrlRemoteMod urlMod = (UrlRemoteMod) mod;
+            output.writeByte(TYPE_URL);
+            writeString(output, urlMod.getFileName());
+            writeString(output, urlMod.getUrl().toExternalForm());
+            output.writeInt(urlMod.getFollows().length);
+            for(String follow : urlMod.getFollows()) {
+                writeString(output, follow);
+            }
+        } else {
+            throw new IOException("Unsupported mod type " + mod.getClass().getName());
+        }
+
+        RemoteModMetadata metadata = mod.getMetadata();
+        output.writeBoolean(metadata != null);
+        if(metadata != null) {
+            output.writeInt(metadata.getHashes().size());
+            for(Map.Entry<String, String> hash : metadata.getHashes().entrySet()) {
+                writeString(output, hash.getKey());
+                writeString(output, hash.getValue());
+            }
+            writeString(output, metadata.getSide() != null ? metadata.getSide().name() : null);
+        }
+
+        InstallationPolicy policy = mod.getInstallationPolicy();
+        output.writeBoolean(policy.shouldContinueOnFailedDownload());
+        writeString(output, policy.getOptionalKey());
+        output.writeBoolean(policy.isSelectedByDefault());
+        writeString(output, policy.getName());
+        writeString(output, policy.getDescription());
+        output.writeBoolean(policy.shouldExtract());
+        output.writeBoolean(policy.shouldDeleteAfterExtract());
+        output.writeBoolean(policy.shouldDownloadAlways());
+        writeString(output, policy.getSupersededFileName());
+        writeString(output, policy.getModpackVersion());
+
+        writeValue(output, mod.getOptions());
+        writeString(output, mod.getFolder());
+        output.writeBoolean(mod.forceInject());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static ModDirectorRemoteMod readMod(DataInputStream input) throws IOException {
+        byte type = input.readByte();
+        int curseAddonId = 0;
+        int curseFileId = 0;
+        String addonId = null;
+        String fileId = null;
+        String fileName;
+        URL url = null;
+        String[] follows = null;
+
+        switch(type) {
+            case TYPE_CURSE:
+                curseAddonId = input.readInt();
+                curseFileId = input.readInt();
+                fileName = readString(input);
+                break;
+
+            case TYPE_MODRINTH:
+                addonId = readString(input);
+                fileId = readString(input);
+                fileName = readString(input);
+                break;
+
+            case TYPE_URL:
+                fileName = readString(input);
+                url = new URL(readString(input));
+                follows = new String[input.readInt()];
+                for(int i = 0; i < follows.length; i++) {
+                    follows[i] = readString(input);
+                }
+                break;
+
+            default:
+                throw new IOException("Unknown mod type " + type);
+        }
+
+        RemoteModMetadata metadata = null;
+        if(input.readBoolean()) {
+            int hashCount = input.readInt();
+            LinkedHashMap<String, String> hashes = hashCount > 0 ? new LinkedHashMap<>() : null;
+            for(int i = 0; i < hashCount; i++) {
+                hashes.put(readString(input), readString(input));
+            }
+            String side = readString(input);
+            metadata = new RemoteModMetadata(hashes, side != null ? PlatformSide.valueOf(side) : null);
+        }
+
+        InstallationPolicy policy = new InstallationPolicy(
+                input.readBoolean(),
+                readString(input),
+                input.readBoolean(),
+                readString(input),
+                readString(input),
+                input.readBoolean(),
+                input.readBoolean(),
+                input.readBoolean(),
+                readString(input),
+                readString(input)
+        );
+
+        Map<String, Object> options = (Map<String, Object>) readValue(input);
+        String folder = readString(input);
+        boolean inject = input.readBoolean();
+
+        switch(type) {
+            case TYPE_CURSE:
+                return new CurseRemoteMod(curseAddonId, curseFileId, metadata, policy, options, folder, inject,
+                        fileName, null);
+
+            case TYPE_MODRINTH:
+                return new ModrinthRemoteMod(addonId, fileId, metadata, policy, options, folder, inject,
+                        fileName, null);
+
+            default:
+                return new UrlRemoteMod(fileName, url, follows, metadata, policy, options, folder, inject, null);
+        }
+    }
+
+    private static void writeModification(DataOutputStream output, ModifyMod modification) throws IOException {
+        writeString(output, modification.getFileName());
+        writeString(output, modification.getFolder());
+        output.writeBoolean(modification.shouldDisable());
+        output.writeBoolean(modification.shouldDelete());
+        writeString(output, modification.getNewFolder());
+        writeString(output, modification.getNewFileName());
+    }
+
+    private static ModifyMod readModification(DataInputStream input) throws IOException {
+        return new ModifyMod(
+                readString(input),
+                readString(input),
+                input.readBoolean(),
+                input.readBoolean(),
+                readString(input),
+                readString(input),
+                null
+        );
+    }
+
+    /**
+     * Writes a value of the free-form {@code options}, which Jackson binds to strings, numbers,
+     * booleans, lists and maps.
+     */
+    private static void writeValue(DataOutputStream output, Object value) throws IOException {
+        if(value == null) {
+            output.writeByte(VALUE_NULL);
+        } else if(value instanceof String) {
+            output.writeByte(VALUE_STRING);
+            writeString(output, (String) value);
+        } else if(value instanceof Boolean) {
+            output.writeByte(VALUE_BOOLEAN);
+            output.writeBoolean((Boolean) value);
+        } else if(value instanceof Integer) {
+            output.writeByte(VALUE_INTEGER);
+            output.writeInt((Integer) value);
+        } else if(value instanceof Long) {
+            output.writeByte(VALUE_LONG);
+            output.writeLong((Long) value);
+        } else if(value instanceof BigInteger) {
+            output.writeByte(VALUE_BIG_INTEGER);
+            writeString(output, value.toString());
+        } else if(value instanceof Double) {
+            output.writeByte(VALUE_DOUBLE);
+            output.writeDouble((Double) value);
+        } else if(value instanceof List) {
+            List<?> list = (List<?>) value;
+            output.writeByte(VALUE_LIST);
+            output.writeInt(list.size());
+            for(Object element : list) {
+                writeValue(output, element);
+            }
+        } else if(value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            output.writeByte(VALUE_MAP);
+            output.writeInt(map.size());
+            for(Map.Entry<?, ?> entry : map.entrySet()) {
+                writeString(output, String.valueOf(entry.getKey()));
+                writeValue(output, entry.getValue());
+            }
+        } else {
+            throw new IOException("Unsupported option value of type " + value.getClass().getName());
+        }
+    }
+
+    private static Object readValue(DataInputStream input) throws IOException {
+        byte type = input.readByte();
+        switch(type) {
+            case VALUE_NULL:
+                return null;
+
+            case VALUE_STRING:
+                return readString(input);
+
+            case VALUE_BOOLEAN:
+                return input.readBoolean();
+
+            case VALUE_INTEGER:
+                return input.readInt();
+
+            case VALUE_LONG:
+                return input.readLong();
+
+            case VALUE_BIG_INTEGER:
+                return new BigInteger(readString(input));
+
+            case VALUE_DOUBLE:
+                return input.readDouble();
+
+            case VALUE_LIST: {
+                int size = input.readInt();
+                List<Object> list = new ArrayList<>(size);
+                for(int i = 0; i < size; i++) {
+                    list.add(readValue(input));
+                }
+                return list;
+            }
+
+            case VALUE_MAP: {
+                int size = input.readInt();
+                Map<String, Object> map = new LinkedHashMap<>();
+                for(int i = 0; i < size; i++) {
+                    map.put(readString(input), readValue(input));
+                }
+                return map;
+            }
+
+            default:
+                throw new IOException("Unknown option value type " + type);
+        }
+    }
+
+    // Not writeUTF, descriptions are not limited to 64 KiB
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        if(value == null) {
+            output.writeInt(-1);
+            return;
+        }
+
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    private static String readString(DataInputStream input) throws IOException {
+        int length = input.readInt();
+        if(length < 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Mods and modify operations read from a snapshot, in the order they were loaded.
+     */
+    public static class Contents {
+        private final List<ModDirectorRemoteMod> mods = new ArrayList<>();
+        private final List<ModifyMod> modifications = new ArrayList<>();
+
+        public List<ModDirectorRemoteMod> getMods() {
+            return mods;
+        }
+
+        public List<ModifyMod> getModifications() {
+            return modifications;
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package net.jan.moddirector.core.manage;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.type.TypeReference;
+import net.jan.moddirector.core.ModDirector;
+import net.jan.moddirector.core.configuration.ConfigurationController;
+import net.jan.moddirector.core.configuration.RemoteModMetadata;
+import net.jan.moddirector.core.logging.ModDirectorSeverityLevel;
+import net.jan.moddirector.core.util.DownloadDigest;
+import net.jan.moddirector.core.util.HashResult;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * On-disk cache of the digests of installed mod files, so warm boots do not have to hash every
+ * jar again to find out that nothing changed. An entry is keyed by the absolute file path and
+ * only trusted while the file's size, last modified time and file key (the inode on unix,
+ * {@code null} on Windows) are still the same as when it was hashed.
+ * <p>
+ * Like {@link ModInfoDiskCache} this class is fail-open: load and save failures are logged at
+ * debug and swallowed, a file that can not be inspected is simply hashed again. The cache lives
+ * next to the mod info cache, named {@code .hash-cache.json}, and is therefore shared by all
+ * instances of the pack. Entries are dropped once they were not used for
+ * {@link #MAX_UNUSED_AGE_MILLIS} rather than as soon as one boot did not use them, so instances
+ * booted in turn do not evict each other's entries, and saving merges in entries other instances
+ * wrote in the meantime.
+ */
+public class FileHashDiskCache {
+    private static final String LOG_DOMAIN = "ModDirector/FileHashDiskCache";
+    private static final String CACHE_FILE = ".hash-cache.json";
+    private static final long MAX_UNUSED_AGE_MILLIS = TimeUnit.DAYS.toMillis(30);
+    // The last use is only refreshed this rarely, so warm boots usually do not rewrite the cache
+    private static final long TOUCH_AFTER_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private final ModDirector director;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Entry> used = new ConcurrentHashMap<>();
+
+    private Path cacheFilePath;
+    private volatile boolean loaded = false;
+    private volatile boolean dirty = false;
+
+    public FileHashDiskCache(ModDirector director) {
+        this.director = director;
+    }
+
+    /**
+     * Checks an existing file against the hashes of {@code metadata}, hashing it only if it
+     * changed since it was last hashed.
+     */
+    public HashResult checkHashes(RemoteModMetadata metadata, Path file) {
+        DownloadDigest digest = metadata.createDigest(director);
+        if(digest.isEmpty()) {
+            return metadata.checkHashes(file, director);
+        }
+
+        ensureLoaded();
+        String key = key(file);
+        BasicFileAttributes attributes = readAttributes(file);
+
+        if(attributes != null) {
+            Entry entry = entries.get(key);
+            if(entry != null && entry.matches(attributes) && entry.hashes.keySet().containsAll(digest.algorithms())) {
+                used.put(key, entry);
+                long now = System.currentTimeMillis();
+                if(now - entry.lastUsed >= TOUCH_AFTER_MILLIS) {
+                    entry.lastUsed = now;
+                    dirty = true;
+                }
+
+                Map<String, String> cached = new LinkedHashMap<>();
+                for(String algorithm : digest.algorithms()) {
+                    cached.put(algorithm, entry.hashes.get(algorithm));
+                }
+                return metadata.compareHashes(cached);
+            }
+        }
+
+        try {
+            digest.update(file);
+        } catch(IOException e) {
+            director.getLogger().logThrowable(ModDirectorSeverityLevel.WARN, "ModDirector/RemoteHash",
+                    "CORE", e, "Failed to open %s for hash calculation, assuming hash does not match",
+                    file.toString());
+            return HashResult.UNMATCHED;
+        }
+
+        Map<String, String> computed = digest.finish();
+        if(attributes != null) {
+            store(key, new Entry(attributes, computed));
+        }
+        return metadata.compareHashes(computed);
+    }
+
+    /**
+     * Checks a freshly downloaded {@code file}, using the digest computed during the download when it
+     * is complete, and remembers the result for the next boot under {@code installedFile}, the path
+     * the file is moved to (a move keeps size, modification time and file key).
+     */
+    public HashResult checkDownloaded(RemoteModMetadata metadata, DownloadDigest digest, Path file, Path installedFile) {
+        if(digest.isEmpty() || !digest.isValid()) {
+            if(file.equals(installedFile)) {
+                return checkHashes(metadata, file);
+            }
+
+            digest = metadata.createDigest(director);
+            if(digest.isEmpty()) {
+                return metadata.checkHashes(file, director);
+            }
+
+            try {
+                digest.update(file);
+            } catch(IOException e) {
+                director.getLogger().logThrowable(ModDirectorSeverityLevel.WARN, "ModDirector/RemoteHash",
+                        "CORE", e, "Failed to open %s for hash calculation, assuming hash does not match",
+                        file.toString());
+                return HashResult.UNMATCHED;
+            }
+        }
+
+        Map<String, String> computed = digest.finish();
+        BasicFileAttributes attributes = readAttributes(file);
+        if(attributes != null) {
+            ensureLoaded();
+            store(key(installedFile), new Entry(attributes, computed));
+        }
+        return metadata.compareHashes(computed);
+    }
+
+    /**
+     * Writes the cache to disk, but only if it changed or has entries to drop. Never throws.
+     */
+    public void save() {
+        ensureLoaded();
+        long now = System.currentTimeMillis();
+        boolean expired = entries.entrySet().stream()
+                .anyMatch(e -> !used.containsKey(e.getKey()) && now - e.getValue().lastUsed >= MAX_UNUSED_AGE_MILLIS);
+        if((!dirty && !expired) || cacheFilePath == null) {
+            return;
+        }
+        try {
+            // Another instance of the pack may have saved since this one loaded
+            Map<String, Entry> onDisk;
+            try {
+                onDisk = readEntries();
+            } catch(Exception e) {
+                onDisk = new HashMap<>();
+            }
+
+            Map<String, Entry> out = new HashMap<>();
+            onDisk.forEach((key, entry) -> {
+                if(!entries.containsKey(key)) {
+                    out.put(key, entry);
+                }
+            });
+            out.putAll(entries);
+            out.entrySet().removeIf(e -> !used.containsKey(e.getKey())
+                    && now - e.getValue().lastUsed >= MAX_UNUSED_AGE_MILLIS);
+
+            Files.createDirectories(cacheFilePath.getParent());
+            // A temp file of its own, other instances of the pack may be saving at the same time
+            Path tempFile = Files.createTempFile(cacheFilePath.getParent(), CACHE_FILE, ".tmp");
+            try {
+                try(OutputStream stream = Files.newOutputStream(tempFile)) {
+                    ConfigurationController.OBJECT_MAPPER.writeValue(stream, out);
+                }
+                Files.move(tempFile, cacheFilePath, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+
+            entries.keySet().retainAll(out.keySet());
+            dirty = false;
+            director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
+                    "CORE", "Saved %d cached file hash entries", out.size());
+        } catch(Exception e) {
+            director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
+                    "CORE", "Failed to save file hash cache: %s", String.valueOf(e.getMessage()));
+        }
+    }
+
+    private void store(String key, Entry entry) {
+        entry.lastUsed = System.currentTimeMillis();
+        entries.put(key, entry);
+        used.put(key, entry);
+        dirty = true;
+    }
+
+    private static String key(Path file) {
+        return file.toAbsolutePath().normalize().toString();
+    }
+
+    private static BasicFileAttributes readAttributes(Path file) {
+        try {
+            return Files.readAttributes(file, BasicFileAttributes.class);
+        } catch(IOException e) {
+            return null;
+        }
+    }
+
+    private synchronized void ensureLoaded() {
+        if(loaded) {
+            return;
+        }
+        cacheFilePath = resolveCacheFileLocation();
+        load();
+        loaded = true;
+    }
+
+    private void load() {
+        if(cacheFilePath == null) {
+            return;
+        }
+        try {
+            if(!Files.exists(cacheFilePath)) {
+                director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
+                        "CORE", "No file hash cache found, starting empty");
+                return;
+            }
+            entries.putAll(readEntries());
+            director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
+                    "CORE", "Loaded %d cached file hash entries", entries.size());
+        } catch(Exception e) {
+            director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
+                    "CORE", "Failed to load file hash cache, starting empty: %s", String.valueOf(e.getMessage()));
+            entries.clear();
+        }
+    }
+
+    private Map<String, Entry> readEntries() throws IOException {
+        Map<String, Entry> result = new HashMap<>();
+        if(!Files.exists(cacheFilePath)) {
+            return result;
+        }
+
+        Map<String, Entry> loadedEntries;
+        try(InputStream stream = Files.newInputStream(cacheFilePath)) {
+            loadedEntries = ConfigurationController.OBJECT_MAPPER.readValue(
+                    stream, new TypeReference<Map<String, Entry>>() { });
+        }
+
+        if(loadedEntries != null) {
+            long now = System.currentTimeMillis();
+            for(Map.Entry<String, Entry> e : loadedEntries.entrySet()) {
+                if(e.getValue() != null && e.getValue().hashes != null) {
+                    if(e.getValue().lastUsed == 0) {
+                        // Written before the last use was recorded
+                        e.getValue().lastUsed = now;
+                    }
+                    result.put(e.getKey(), e.getValue());
+                }
+            }
+        }
+        return result;
+    }
+
+    private Path resolveCacheFileLocation() {
+        try {
+            return SnapDirectory.resolve(director).resolve(CACHE_FILE);
+        } catch(Exception e) {
+            director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
+                    "CORE", "Failed to resolve file hash cache location, cache disabled: %s",
+                    String.valueOf(e.getMessage()));
+            return null;
+        }
+    }
+
+    private static class Entry {
+        @JsonProperty("size")
+        public long size;
+
+        @JsonProperty("lastModified")
+        public long lastModified;
+
+        @JsonProperty("fileKey")
+        public String fileKey;
+
+        @JsonProperty("hashes")
+        public Map<String, String> hashes;
+
+        @JsonProperty("lastUsed")
+        public volatile long lastUsed;
+
+        public Entry() {
+        }
+
+        public Entry(BasicFileAttributes attributes, Map<String, String> hashes) {
+            this.size = attributes.size();
+            this.lastModified = attributes.lastModifiedTime().toMillis();
+            this.fileKey = attributes.fileKey() == null ? null : attributes.fileKey().toString();
+            this.hashes = hashes;
+        }
+
+        public boolean matches(BasicFileAttributes attributes) {
+            return size == attributes.size()
+                    && lastModified == attributes.lastModifiedTime().toMillis()
+                    && Objects.equals(fileKey, attributes.fileKey() == null ? null : attributes.fileKey().toString());
+        }
+    }
+}
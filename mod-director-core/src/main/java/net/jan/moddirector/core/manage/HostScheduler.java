@@ -0,0 +1,183 @@
+package net.jan.moddirector.core.manage;
+
+import net.jan.moddirector.core.ModDirector;
+import net.jan.moddirector.core.configuration.modpack.ModpackNetworkConfiguration;
+import net.jan.moddirector.core.logging.ModDirectorSeverityLevel;
+import net.jan.moddirector.core.util.HostStatistics;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Runs install tasks on an executor while capping how many connections to the same download host are
+ * in flight, so a small host is not hit by every worker at once while the remaining workers can serve
+ * other hosts. Every running task holds one connection of its host, downloads which open more
+ * connections (segmented downloads) reserve them with {@link #tryAcquire(String, int)}. Tasks over the
+ * limit wait in a per-host queue instead of occupying a worker. A task is accounted to the host of its
+ * download url, redirects to other hosts and follow pages are not tracked separately.
+ * <p>
+ * With adaptive downloads the limit of every host starts at the configured initial value and is
+ * adjusted whenever as many tasks as the limit completed: it is halved as soon as a request to the
+ * host failed (I/O errors, 5xx and 429 responses), raised by one while the throughput of the host
+ * keeps improving and lowered by one when it dropped noticeably, never exceeding the configured
+ * maximum.
+ */
+public class HostScheduler {
+    private static final String LOG_DOMAIN = "ModDirector/HostScheduler";
+
+    private final ModDirector director;
+    private final ExecutorService executor;
+    private final ModpackNetworkConfiguration network;
+    private final Map<String, HostState> hosts = new HashMap<>();
+
+    public HostScheduler(ModDirector director, ExecutorService executor, ModpackNetworkConfiguration network) {
+        this.director = director;
+        this.executor = executor;
+        this.network = network;
+    }
+
+    /**
+     * Schedules {@code task}, which downloads from {@code host}. Tasks without a host are not limited.
+     */
+    public Future<Void> submit(String host, Callable<Void> task) {
+        if(host == null) {
+            return executor.submit(task);
+        }
+
+        FutureTask<Void> future = new FutureTask<>(task);
+        synchronized(this) {
+            HostState state = hosts.computeIfAbsent(host, this::createState);
+            state.queue.add(future);
+            dispatch(state);
+        }
+        return future;
+    }
+
+    /**
+     * Reserves up to {@code wanted} connections to {@code host} in addition to the one of the running
+     * task, as far as the limit of the host allows. Queued tasks take precedence, the reservation only
+     * gets connections no task is waiting for. Every reserved connection must be given back with
+     * {@link #release(String)}.
+     *
+     * @return the number of connections reserved, between 0 and {@code wanted}
+     */
+    public synchronized int tryAcquire(String host, int wanted) {
+        HostState state = hosts.computeIfAbsent(host.toLowerCase(Locale.ROOT), this::createState);
+        if(!state.queue.isEmpty()) {
+            return 0;
+        }
+
+        int acquired = Math.max(0, Math.min(wanted, state.limit - state.inFlight));
+        state.inFlight += acquired;
+        return acquired;
+    }
+
+    /**
+     * Gives back a connection reserved with {@link #tryAcquire(String, int)}.
+     */
+    public synchronized void release(String host) {
+        HostState state = hosts.get(host.toLowerCase(Locale.ROOT));
+        if(state != null) {
+            state.inFlight--;
+            dispatch(state);
+        }
+    }
+
+    private HostState createState(String host) {
+        return new HostState(host, network.adaptiveDownloads() ?
+                network.initialDownloadsPerHost() : network.maxDownloadsPerHost());
+    }
+
+    // Must be called while holding the lock
+    private void dispatch(HostState state) {
+        while(state.inFlight < state.limit && !state.queue.isEmpty()) {
+            FutureTask<Void> future = state.queue.poll();
+            state.inFlight++;
+            executor.execute(() -> {
+                try {
+                    future.run();
+                } finally {
+                    completed(state);
+                }
+            });
+        }
+    }
+
+    private synchronized void completed(HostState state) {
+        state.inFlight--;
+        if(network.adaptiveDownloads()) {
+            adapt(state);
+        }
+        dispatch(state);
+    }
+
+    private void adapt(HostState state) {
+        long failures = state.statistics.failures();
+        if(failures > state.failuresSeen) {
+            state.failuresSeen = failures;
+            if(state.limit > 1) {
+                state.limit = Math.max(1, state.limit / 2);
+                director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
+                        "CORE", "Requests to %s failed, lowering its limit to %d", state.host, state.limit);
+            }
+            state.startRound();
+            return;
+        }
+
+        if(++state.roundCompleted < state.limit) {
+            return;
+        }
+
+        long bytes = state.statistics.bytes() - state.roundStartBytes;
+        long elapsed = System.nanoTime() - state.roundStartNanos;
+        if(bytes > 0 && elapsed > 0) {
+            // Rounds which did not download anything (everything came from the store) say nothing
+            double throughput = bytes * 1e9 / elapsed;
+            if(throughput > state.lastThroughput * 1.05 && state.limit < network.maxDownloadsPerHost()) {
+                state.limit++;
+            } else if(throughput < state.lastThroughput * 0.75 && state.limit > 1) {
+                state.limit--;
+            }
+            state.lastThroughput = throughput;
+
+            director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
+                    "CORE", "%s delivered %.0f KiB/s, limit is now %d", state.host, throughput / 1024, state.limit);
+        }
+        state.startRound();
+    }
+
+    private static class HostState {
+        private final String host;
+        private final HostStatistics statistics;
+        private final Queue<FutureTask<Void>> queue = new ArrayDeque<>();
+
+        private int limit;
+        private int inFlight;
+        private long failuresSeen;
+        private int roundCompleted;
+        private long roundStartBytes;
+        private long roundStartNanos;
+        private double lastThroughput;
+
+        private HostState(String host, int limit) {
+            this.host = host;
+            this.statistics = HostStatistics.of(host);
+            this.limit = limit;
+            this.failuresSeen = statistics.failures();
+            startRound();
+        }
+
+        private void startRound() {
+            roundCompleted = 0;
+            roundStartBytes = statistics.bytes();
+            roundStartNanos = System.nanoTime();
+        }
+    }
+}
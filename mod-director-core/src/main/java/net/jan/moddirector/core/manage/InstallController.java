@@ -4,11 +4,16 @@ import net.jan.moddirector.core.ModDirector;
 import net.jan.moddirector.core.configuration.ModDirectorRemoteMod;
 import net.jan.moddirector.core.configuration.RemoteModInformation;
 import net.jan.moddirector.core.configuration.modpack.ModpackConfiguration;
+import net.jan.moddirector.core.configuration.type.CurseRemoteMod;
+import net.jan.moddirector.core.configuration.type.ModrinthRemoteMod;
 import net.jan.moddirector.core.exception.ModDirectorException;
 import net.jan.moddirector.core.logging.ModDirectorSeverityLevel;
 import net.jan.moddirector.core.manage.install.InstallableMod;
 import net.jan.moddirector.core.manage.install.InstalledMod;
+import net.jan.moddirector.core.util.DownloadDigest;
 import net.jan.moddirector.core.util.HashResult;
+import net.jan.moddirector.core.util.IOOperation;
+import net.jan.moddirector.core.util.ResumableDownload;
 
 import java.io.IOException;
 import java.nio.file.Files;
@@ -19,18 +24,25 @@ import java.util.List;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiFunction;
+import java.util.function.Consumer;
 
 public class InstallController {
     private static final String LOG_DOMAIN = "ModDirector/InstallController";
+    private static final String DOWNLOAD_SUFFIX = ".download";
     private final ModDirector director;
     private final InstalledModsTracker tracker;
     private final ModInfoDiskCache diskCache;
+    private final FileHashDiskCache hashCache;
+    private final SharedArtifactStore artifactStore;
 
     public InstallController(ModDirector director, InstalledModsTracker tracker) {
         this.director = director;
         this.tracker = tracker;
         this.diskCache = new ModInfoDiskCache(director);
+        this.hashCache = new FileHashDiskCache(director);
+        this.artifactStore = new SharedArtifactStore(director);
     }
 
     /**
@@ -41,19 +53,121 @@ public class InstallController {
         diskCache.save();
     }
 
+    /**
+     * Persists the on-disk file hash cache. Called after the pre-install phase and again after
+     * the installation, so both verified and freshly downloaded files are remembered. Never throws.
+     */
+    public void persistFileHashDiskCache() {
+        hashCache.save();
+    }
+
     private ModDirectorSeverityLevel downloadSeverityLevelFor(ModDirectorRemoteMod mod) {
         return mod.getInstallationPolicy().shouldContinueOnFailedDownload() ?
                 ModDirectorSeverityLevel.WARN : ModDirectorSeverityLevel.ERROR;
     }
 
+    // Whether the tracking file had no entries before the first install of this run, null until recorded
+    private volatile Boolean trackingEmptyBeforeInstall;
+
+    /**
+     * Remembers whether the tracking file is empty. Must be called before the first install task is
+     * submitted, as eager installs track their files while the other mods are still being queried,
+     * after which the tracker can no longer tell that this run migrates an untracked installation.
+     */
+    public void recordTrackingState() {
+        trackingEmptyBeforeInstall = tracker.isEmpty();
+    }
+
+    // Directories of all computed target files, filled by the pre-install tasks
+    private final Set<Path> targetDirectories = ConcurrentHashMap.newKeySet();
+
     // Cache for mod information to avoid duplicate queries
     private final java.util.Map<ModDirectorRemoteMod, RemoteModInformation> modInfoCache = new java.util.HashMap<>();
 
+    // Immutable per-file identity (Curse/Modrinth file id, or full URL for URL mods),
+    // so a bundle change yields a new key and thus an automatic cache miss.
+    private static String diskCacheKey(ModDirectorRemoteMod mod) {
+        return mod.remoteType() + "|" + mod.offlineName();
+    }
+
+    /**
+     * Returns the cached information of the mod after letting the mod restore its state from it, or
+     * {@code null} if there is none or it is not sufficient to install the mod without a query.
+     */
+    private RemoteModInformation restoreCachedInformation(ModDirectorRemoteMod mod) {
+        RemoteModInformation cachedInformation = diskCache.get(diskCacheKey(mod));
+        if(cachedInformation == null || !mod.restoreInformation(cachedInformation)) {
+            return null;
+        }
+        return cachedInformation;
+    }
+
+    /**
+     * Resolves the information of all mods which will need a network query in the pre-install phase
+     * using the bulk endpoints of their backends, so the per-mod query becomes a lookup. Must be called
+     * before the pre-install tasks run. Never throws; mods which could not be resolved in bulk simply
+     * fall back to their individual query. Does nothing in offline mode.
+     */
+    public void prefetchInformation(List<ModDirectorRemoteMod> allMods) {
+        if(director.isOffline()) {
+            return;
+        }
+
+        List<CurseRemoteMod> curseMods = new ArrayList<>();
+        List<ModrinthRemoteMod> modrinthMods = new ArrayList<>();
+
+        for(ModDirectorRemoteMod mod : allMods) {
+            if(mod.getMetadata() != null && !mod.getMetadata().shouldTryInstall(director)) {
+                continue;
+            }
+
+            if(restoreCachedInformation(mod) != null) {
+                continue;
+            }
+
+            if(mod instanceof CurseRemoteMod) {
+                curseMods.add((CurseRemoteMod) mod);
+            } else if(mod instanceof ModrinthRemoteMod) {
+                modrinthMods.add((ModrinthRemoteMod) mod);
+            }
+        }
+
+        if(!curseMods.isEmpty()) {
+            director.getLogger().log(ModDirectorSeverityLevel.INFO, LOG_DOMAIN,
+                    "CORE", "Resolving %d Curse files in bulk", curseMods.size());
+            try {
+                CurseRemoteMod.queryInformationBatch(curseMods);
+            } catch(ModDirectorException e) {
+                director.getLogger().logThrowable(ModDirectorSeverityLevel.WARN, LOG_DOMAIN,
+                        "CORE", e, "Bulk resolution of Curse files failed, falling back to querying one by one");
+            }
+        }
+
+        if(!modrinthMods.isEmpty()) {
+            director.getLogger().log(ModDirectorSeverityLevel.INFO, LOG_DOMAIN,
+                    "CORE", "Resolving %d Modrinth versions in bulk", modrinthMods.size());
+            try {
+                ModrinthRemoteMod.queryInformationBatch(modrinthMods);
+            } catch(ModDirectorException e) {
+                director.getLogger().logThrowable(ModDirectorSeverityLevel.WARN, LOG_DOMAIN,
+                        "CORE", e, "Bulk resolution of Modrinth versions failed, falling back to querying one by one");
+            }
+        }
+    }
+
+    /**
+     * Creates the tasks which query and check every mod. Mods which will be installed regardless of
+     * the selection dialog (reinstalls and fresh mods without an optional key) are additionally handed
+     * to {@code installNow} as soon as their own check is done, so their download can start while
+     * other mods are still being queried. They are still added to {@code freshMods} or
+     * {@code reinstallMods}.
+     */
     public List<Callable<Void>> createPreInstallTasks(
             List<ModDirectorRemoteMod> allMods,
             List<ModDirectorRemoteMod> excludedMods,
             List<InstallableMod> freshMods,
             List<InstallableMod> reinstallMods,
+            Consumer<InstallableMod> installNow,
             BiFunction<String, String, ProgressCallback> callbackFactory
     ) {
         List<Callable<Void>> preInstallTasks = new ArrayList<>();
@@ -84,19 +198,28 @@ public class InstallController {
 
                 RemoteModInformation information;
 
-                // Immutable per-file identity (Curse/Modrinth file id, or full URL for URL mods),
-                // so a bundle change yields a new key and thus an automatic cache miss.
-                String cacheKey = mod.remoteType() + "|" + mod.offlineName();
-                RemoteModInformation cachedInformation = diskCache.get(cacheKey);
+                RemoteModInformation cachedInformation = restoreCachedInformation(mod);
 
                 if(cachedInformation != null) {
-                    // Warm boot: reuse persisted info and skip the network query entirely.
+                    // Warm boot: reuse persisted info and skip the network query entirely, the mod
+                    // restored everything it needs to download from it.
                     information = cachedInformation;
                 } else {
                     try {
                         information = mod.queryInformation();
-                        diskCache.put(cacheKey, information);
+                        diskCache.put(diskCacheKey(mod), information);
                     } catch(ModDirectorException e) {
+                        if(director.detectOfflineAfterFailure()) {
+                            // Expected for every mod which was never queried before, not worth a stack trace
+                            director.getLogger().log(ModDirectorSeverityLevel.WARN, LOG_DOMAIN,
+                                    "CORE", "No cached information for %s from %s, skipping it in offline mode",
+                                    mod.offlineName(), mod.remoteType());
+                            director.addError(new ModDirectorError(ModDirectorSeverityLevel.WARN,
+                                    "Mod " + mod.offlineName() + " from " + mod.remoteType() + " is not available offline"));
+                            callback.done();
+                            return null;
+                        }
+
                         director.getLogger().logThrowable(ModDirectorSeverityLevel.ERROR, LOG_DOMAIN,
                                 "CORE", e, "Failed to query information for %s from %s",
                                 mod.offlineName(), mod.remoteType());
@@ -121,6 +244,8 @@ public class InstallController {
                     return null;
                 }
 
+                targetDirectories.add(targetFile.getParent());
+
                 Path disabledFile = computeDisabledPath(targetFile);
 
                 if(Files.isRegularFile(disabledFile) || !isVersionCompliant(mod)) {
@@ -130,6 +255,7 @@ public class InstallController {
                 }
 
                 InstallableMod installableMod = new InstallableMod(mod, information, targetFile);
+                boolean installWithoutSelection = false;
 
                 // Dev mode: if a jar for this mod is already present under a different name/version
                 // (typically a locally-built custom jar), keep it and skip the download entirely so it
@@ -148,7 +274,7 @@ public class InstallController {
                 Path bansoukouDisabledFile = computeBansoukouDisabledPath(targetFile);
 
                 if(mod.getMetadata() != null && (Files.isRegularFile(targetFile) || (Files.isRegularFile(bansoukouPatchedFile) && Files.isRegularFile(bansoukouDisabledFile)))) {
-                    HashResult hashResult = mod.getMetadata().checkHashes(Files.isRegularFile(targetFile) ? targetFile : bansoukouDisabledFile, director);
+                    HashResult hashResult = hashCache.checkHashes(mod.getMetadata(), Files.isRegularFile(targetFile) ? targetFile : bansoukouDisabledFile);
 
                     switch(hashResult) {
                         case UNKNOWN:
@@ -176,12 +302,14 @@ public class InstallController {
                     Files.deleteIfExists(bansoukouPatchedFile);
                     Files.deleteIfExists(bansoukouDisabledFile);
                     reinstallMods.add(installableMod);
+                    installWithoutSelection = true;
 
                 } else if(mod.getInstallationPolicy().shouldDownloadAlways() && Files.isRegularFile(targetFile)) {
                     director.getLogger().log(ModDirectorSeverityLevel.INFO, LOG_DOMAIN,
                         "CORE", "Force downloading file %s as download always option is set.",
                         targetFile.toString());
                     reinstallMods.add(installableMod);
+                    installWithoutSelection = true;
 
                 } else if(Files.isRegularFile(targetFile)) {
                     director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
@@ -191,6 +319,7 @@ public class InstallController {
 
                 } else {
                     freshMods.add(installableMod);
+                    installWithoutSelection = mod.getInstallationPolicy().getOptionalKey() == null;
                 }
 
                 if(!excludedMods.contains(mod) && mod.getInstallationPolicy().getSupersededFileName() != null) {
@@ -203,6 +332,10 @@ public class InstallController {
                 }
 
                 callback.done();
+
+                if(installWithoutSelection) {
+                    installNow.accept(installableMod);
+                }
                 return null;
             });
         }
@@ -210,6 +343,13 @@ public class InstallController {
         return preInstallTasks;
     }
 
+    /**
+     * Returns the directories the mods are installed to, available once the pre-install tasks ran.
+     */
+    public Set<Path> getTargetDirectories() {
+        return targetDirectories;
+    }
+
     private Path computeInstallationTargetPath(ModDirectorRemoteMod mod, RemoteModInformation information) {
         Path installationRoot = director.getPlatform().installationRoot().toAbsolutePath().normalize();
 
@@ -353,23 +493,17 @@ public class InstallController {
         }
     }
 
-    public List<Callable<Void>> createInstallTasks(
-            List<InstallableMod> mods,
+    public Callable<Void> createInstallTask(
+            InstallableMod mod,
             BiFunction<String, String, ProgressCallback> callbackFactory
     ) {
-        List<Callable<Void>> installTasks = new ArrayList<>();
-
-        for(InstallableMod mod : mods) {
-            installTasks.add(() -> {
-                handle(mod, callbackFactory.apply(mod.getRemoteInformation().getTargetFilename(), "Installing"));
-                return null;
-            });
-        }
-
-        return installTasks;
+        return () -> {
+            handle(mod, callbackFactory.apply(mod.getRemoteInformation().getTargetFilename(), "Installing"));
+            return null;
+        };
     }
 
-    private void handle(InstallableMod mod, ProgressCallback callback) {
+    private void handle(InstallableMod mod, ProgressCallback callback) throws InterruptedException {
         ModDirectorRemoteMod remoteMod = mod.getRemoteMod();
 
         director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN, "CORE",
@@ -388,9 +522,58 @@ public class InstallController {
             return;
         }
 
+        SharedArtifactStore.StoreKey storeKey = artifactStore.keyFor(remoteMod, mod.getRemoteInformation());
+        // Files keyed by a configured hash are verified below like any download
+        boolean verifiedByMetadata = storeKey != null && remoteMod.getMetadata() != null
+                && remoteMod.getMetadata().getHashes().containsKey(storeKey.getAlgorithm());
+
+        if(storeKey != null && artifactStore.restore(storeKey, targetFile, !verifiedByMetadata)) {
+            if(remoteMod.getMetadata() == null
+                    || hashCache.checkHashes(remoteMod.getMetadata(), targetFile) != HashResult.UNMATCHED) {
+                director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
+                        "CORE", "Took %s from the shared store", targetFile.toString());
+                installSucceeded(remoteMod, targetFile);
+                callback.done();
+                return;
+            }
+
+            director.getLogger().log(ModDirectorSeverityLevel.WARN, LOG_DOMAIN,
+                    "CORE", "File %s from the shared store did not match its hash, downloading it instead",
+                    targetFile.toString());
+            artifactStore.discard(storeKey);
+        }
+
+        if(director.isOffline()) {
+            director.getLogger().log(ModDirectorSeverityLevel.WARN, LOG_DOMAIN,
+                    "CORE", "Mod %s is not in the shared store, skipping it in offline mode", remoteMod.offlineName());
+            director.addError(new ModDirectorError(ModDirectorSeverityLevel.WARN,
+                    "Mod " + remoteMod.offlineName() + " is not available offline"));
+            callback.done();
+            return;
+        }
+
+        DownloadDigest digest = remoteMod.getMetadata() != null ?
+                remoteMod.getMetadata().createDigest(director) : DownloadDigest.none();
+
+        // Plain files are downloaded next to the target and only moved into place once verified,
+        // so an interrupted run never leaves a truncated file behind which would count as installed.
+        // Extracted mods unpack next to the archive, there is no single file to move into place.
+        boolean extract = remoteMod.getInstallationPolicy().shouldExtract();
+        Path downloadFile = extract ? targetFile : targetFile.resolveSibling(targetFile.getFileName() + DOWNLOAD_SUFFIX);
+
         try {
-            mod.performInstall(director, callback);
+            mod.performInstall(director, callback, digest, downloadFile);
         } catch(ModDirectorException e) {
+            discardDownload(downloadFile, targetFile);
+            if(director.detectOfflineAfterFailure()) {
+                director.getLogger().log(ModDirectorSeverityLevel.WARN, LOG_DOMAIN,
+                        "CORE", "Failed to download %s, skipping it in offline mode", remoteMod.offlineName());
+                director.addError(new ModDirectorError(ModDirectorSeverityLevel.WARN,
+                        "Mod " + remoteMod.offlineName() + " is not available offline"));
+                callback.done();
+                return;
+            }
+
             director.getLogger().logThrowable(ModDirectorSeverityLevel.ERROR, LOG_DOMAIN,
                     "CORE", e, "Failed to install mod %s", remoteMod.offlineName());
             director.addError(new ModDirectorError(downloadSeverityLevelFor(remoteMod),
@@ -399,28 +582,68 @@ public class InstallController {
             return;
         }
 
-        if(remoteMod.getMetadata() != null && remoteMod.getMetadata().checkHashes(targetFile, director) == HashResult.UNMATCHED) {
+        HashResult hashResult = remoteMod.getMetadata() != null ?
+                hashCache.checkDownloaded(remoteMod.getMetadata(), digest, downloadFile, targetFile) : HashResult.UNKNOWN;
+
+        if(hashResult == HashResult.UNMATCHED) {
             director.getLogger().log(ModDirectorSeverityLevel.ERROR, LOG_DOMAIN,
                     "CORE", "Mod did not match hash after download, aborting!");
             director.addError(new ModDirectorError(ModDirectorSeverityLevel.ERROR,
                     "Mod did not match hash after download"));
-        } else {
-            if(remoteMod.getInstallationPolicy().shouldExtract()) {
-                director.getLogger().log(ModDirectorSeverityLevel.INFO, LOG_DOMAIN,
-                    "CORE", "Extracted mod file %s", targetFile.toString());
-            } else {
-                director.getLogger().log(ModDirectorSeverityLevel.INFO, LOG_DOMAIN,
-                    "CORE", "Installed mod file %s", targetFile.toString());
+            discardDownload(downloadFile, targetFile);
+            callback.done();
+            return;
+        }
+
+        if(!extract) {
+            try {
+                IOOperation.moveIntoPlace(downloadFile, targetFile);
+            } catch(IOException e) {
+                director.getLogger().logThrowable(ModDirectorSeverityLevel.ERROR, LOG_DOMAIN,
+                        "CORE", e, "Failed to move downloaded file into place at %s", targetFile.toString());
+                director.addError(new ModDirectorError(downloadSeverityLevelFor(remoteMod),
+                        "Failed to install mod " + remoteMod.offlineName(), e));
+                discardDownload(downloadFile, targetFile);
+                callback.done();
+                return;
             }
-            director.installSuccess(new InstalledMod(targetFile, remoteMod.getOptions(), remoteMod.forceInject()));
-            
-            // Track this installed file
-            tracker.trackInstalledFile(targetFile);
         }
 
+        if(storeKey != null) {
+            artifactStore.add(storeKey, targetFile, verifiedByMetadata && hashResult == HashResult.MATCHED);
+        }
+        installSucceeded(remoteMod, targetFile);
+
         callback.done();
     }
 
+    private void discardDownload(Path downloadFile, Path targetFile) {
+        if(downloadFile.equals(targetFile)) {
+            return;
+        }
+
+        try {
+            Files.deleteIfExists(downloadFile);
+        } catch(IOException e) {
+            director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
+                    "CORE", "Failed to delete %s: %s", downloadFile.toString(), String.valueOf(e.getMessage()));
+        }
+    }
+
+    private void installSucceeded(ModDirectorRemoteMod remoteMod, Path targetFile) {
+        if(remoteMod.getInstallationPolicy().shouldExtract()) {
+            director.getLogger().log(ModDirectorSeverityLevel.INFO, LOG_DOMAIN,
+                "CORE", "Extracted mod file %s", targetFile.toString());
+        } else {
+            director.getLogger().log(ModDirectorSeverityLevel.INFO, LOG_DOMAIN,
+                "CORE", "Installed mod file %s", targetFile.toString());
+        }
+        director.installSuccess(new InstalledMod(targetFile, remoteMod.getOptions(), remoteMod.forceInject()));
+
+        // Track this installed file
+        tracker.trackInstalledFile(targetFile);
+    }
+
     /**
      * Identifies mod files that are no longer in the configuration and should be removed.
      * Returns a list of old mod files for user confirmation before deletion.
@@ -440,6 +663,7 @@ public class InstallController {
 
             // Build a set of all expected mod filenames from ALL mods in configuration
             Set<String> expectedModFiles = new HashSet<>();
+            Set<Path> expectedTargetFiles = new HashSet<>();
             
             // Process all mods from configuration to get their expected filenames
             for (ModDirectorRemoteMod mod : allMods) {
@@ -456,6 +680,7 @@ public class InstallController {
                     
                     if (targetFile != null) {
                         expectedModFiles.add(targetFile.getFileName().toString());
+                        expectedTargetFiles.add(targetFile);
                         
                         // Also track disabled and bansoukou variants
                         Path disabledFile = computeDisabledPath(targetFile);
@@ -473,6 +698,8 @@ public class InstallController {
                 }
             }
             
+            sweepOrphanedDownloads(expectedTargetFiles);
+
             // Combine freshMods and reinstallMods for migration
             List<InstallableMod> allInstallableMods = new ArrayList<>();
             allInstallableMods.addAll(freshMods);
@@ -564,6 +791,68 @@ public class InstallController {
         return oldModsToRemove;
     }
 
+    /**
+     * Deletes partial downloads ({@code .download} files and the part files and sidecars of resumable
+     * downloads) left behind in the install directories for mods which are no longer configured.
+     * Partial downloads of configured mods are kept so the next install can continue them.
+     */
+    private void sweepOrphanedDownloads(Set<Path> expectedTargetFiles) {
+        Set<Path> directories = new HashSet<>();
+        directories.add(director.getPlatform().modFile("dummy.jar").getParent().toAbsolutePath().normalize());
+        for(Path targetFile : expectedTargetFiles) {
+            directories.add(targetFile.getParent());
+        }
+
+        List<Path> orphans = new ArrayList<>();
+        for(Path directory : directories) {
+            if(!Files.isDirectory(directory)) {
+                continue;
+            }
+
+            try(java.util.stream.Stream<Path> files = Files.list(directory)) {
+                files.forEach(file -> {
+                    String targetName = partialDownloadTarget(file);
+                    if(targetName != null && !expectedTargetFiles.contains(file.resolveSibling(targetName))) {
+                        orphans.add(file);
+                    }
+                });
+            } catch(IOException | java.io.UncheckedIOException e) {
+                director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
+                        "CORE", "Failed to look for partial downloads in %s: %s", directory.toString(),
+                        String.valueOf(e.getMessage()));
+            }
+        }
+
+        for(Path orphan : orphans) {
+            try {
+                Files.deleteIfExists(orphan);
+                director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
+                        "CORE", "Deleted partial download %s of a mod which is no longer configured", orphan.toString());
+            } catch(IOException e) {
+                director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
+                        "CORE", "Failed to delete %s: %s", orphan.toString(), String.valueOf(e.getMessage()));
+            }
+        }
+    }
+
+    /**
+     * Returns the name of the file {@code file} is a partial download of, or {@code null} if it is none.
+     */
+    private static String partialDownloadTarget(Path file) {
+        String name = file.getFileName().toString();
+        String partialName = ResumableDownload.partialTargetName(file);
+        String downloadName = partialName != null ? partialName : name;
+        if(downloadName.endsWith(DOWNLOAD_SUFFIX)) {
+            return downloadName.substring(0, downloadName.length() - DOWNLOAD_SUFFIX.length());
+        }
+
+        // Extracted mods download in place, their part files are only recognisable by the sidecar
+        if(partialName != null && ResumableDownload.hasPartState(file.resolveSibling(partialName))) {
+            return partialName;
+        }
+        return null;
+    }
+
     /**
      * Removes the specified old mod files that the user has confirmed for deletion.
      * 
@@ -631,7 +920,8 @@ public class InstallController {
      * @param allMods Complete list of all mods from the configuration
      */
     public void reconstructTrackingFromExistingFiles(List<ModDirectorRemoteMod> allMods) {
-        if (!tracker.isEmpty()) {
+        Boolean trackingWasEmpty = trackingEmptyBeforeInstall;
+        if (trackingWasEmpty != null ? !trackingWasEmpty : !tracker.isEmpty()) {
             director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
                     "CORE", "Tracking file already exists and is not empty, skipping reconstruction");
             return;
@@ -16,11 +16,13 @@ import java.util.Set;
 /**
  * Tracks mods that have been installed by ModDirector to enable cleanup
  * of old versions when configuration changes.
+ * <p>
+ * Install tasks track their files while the old mods are identified on the main thread,
+ * so all access is synchronized.
  */
 public class InstalledModsTracker {
     private static final String TRACKING_FILE = "installed-mods.json";
     private static final String LOG_DOMAIN = "ModDirector/InstalledModsTracker";
-    private static final String FILE_DIRECTOR_DIR = "file-director-snap";
 
     private final ModDirector director;
     private Path trackingFilePath;
@@ -46,9 +48,9 @@ public class InstalledModsTracker {
     }
 
     /**
-     * Get the tracking file location in the user's home directory.
+     * Get the tracking file location in the snap directory of the pack, see {@link SnapDirectory}.
      * Structure: %USERPROFILE%/file-director-snap/{modpackName}/{mcVersion}/{side}/installed-mods.json
-     * or ~/.file-director-snap/{modpackName}/{mcVersion}/{side}/installed-mods.json on Unix systems
+     * or ~/file-director-snap/{modpackName}/{mcVersion}/{side}/installed-mods.json on Unix systems
      * 
      * The 'side' component (client/server) prevents conflicts when running both client and server
      * with different mod configurations in the same installation directory.
@@ -58,57 +60,9 @@ public class InstalledModsTracker {
         if (userHome == null || userHome.isEmpty()) {
             director.getLogger().log(ModDirectorSeverityLevel.WARN, LOG_DOMAIN,
                     "CORE", "user.home system property not set, falling back to installation root");
-            return director.getPlatform().installationRoot().resolve(TRACKING_FILE);
         }
 
-        // Get modpack name, Minecraft version, and side (client/server) for folder structure
-        String modpackName = "default";
-        String mcVersion = "unknown";
-        String side = "unknown";
-        
-        try {
-            if (director.getConfigurationController() != null 
-                    && director.getConfigurationController().getModpackConfiguration() != null) {
-                String packName = director.getConfigurationController().getModpackConfiguration().packName();
-                if (packName != null && !packName.isEmpty()) {
-                    // Sanitize the modpack name to be filesystem-safe
-                    // Note: packName is validated to not contain versions in ModpackConfiguration constructor
-                    modpackName = packName.replaceAll("[^a-zA-Z0-9._-]", "_");
-                    
-                    director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
-                            "CORE", "Using modpack name: %s", modpackName);
-                }
-                
-                // Get Minecraft version to prevent conflicts between same modpack name on different MC versions
-                String mcVer = director.getConfigurationController().getModpackConfiguration().mcVersion();
-                if (mcVer != null && !mcVer.isEmpty()) {
-                    // Sanitize the MC version to be filesystem-safe
-                    mcVersion = mcVer.replaceAll("[^a-zA-Z0-9._-]", "_");
-                    
-                    director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
-                            "CORE", "Using Minecraft version: %s", mcVersion);
-                }
-            }
-            
-            // Get platform side (client/server) to separate tracking between client and server
-            // This prevents conflicts when running both in the same installation directory
-            net.jan.moddirector.core.platform.PlatformSide platformSide = director.getPlatform().side();
-            if (platformSide != null) {
-                side = platformSide.toString().toLowerCase();
-                director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
-                        "CORE", "Using platform side: %s", side);
-            } else {
-                director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
-                        "CORE", "Platform side not determined, using 'unknown'");
-            }
-            
-        } catch (Exception e) {
-            director.getLogger().logThrowable(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
-                    "CORE", e, "Failed to get modpack info, MC version, or platform side; using defaults");
-        }
-
-        Path fileDirectorPath = java.nio.file.Paths.get(userHome, FILE_DIRECTOR_DIR, modpackName, mcVersion, side);
-        Path trackingFile = fileDirectorPath.resolve(TRACKING_FILE);
+        Path trackingFile = SnapDirectory.resolve(director).resolve(TRACKING_FILE);
         
         director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
                 "CORE", "Using tracking file location: %s", trackingFile.toString());
@@ -140,7 +94,7 @@ public class InstalledModsTracker {
     /**
      * Save the tracking data to disk
      */
-    public void save() {
+    public synchronized void save() {
         ensureInitialized();
         try {
             Files.createDirectories(trackingFilePath.getParent());
@@ -159,7 +113,7 @@ public class InstalledModsTracker {
     /**
      * Track a newly installed mod file
      */
-    public void trackInstalledFile(Path modFile) {
+    public synchronized void trackInstalledFile(Path modFile) {
         ensureInitialized();
         String fileName = modFile.getFileName().toString();
         if (data.installedFiles.add(fileName)) {
@@ -171,7 +125,7 @@ public class InstalledModsTracker {
     /**
      * Remove a file from tracking (when it's deleted)
      */
-    public void untrackFile(Path modFile) {
+    public synchronized void untrackFile(Path modFile) {
         ensureInitialized();
         String fileName = modFile.getFileName().toString();
         if (data.installedFiles.remove(fileName)) {
@@ -183,7 +137,7 @@ public class InstalledModsTracker {
     /**
      * Get all tracked mod filenames
      */
-    public Set<String> getTrackedFiles() {
+    public synchronized Set<String> getTrackedFiles() {
         ensureInitialized();
         return new HashSet<>(data.installedFiles);
     }
@@ -191,7 +145,7 @@ public class InstalledModsTracker {
     /**
      * Check if a file is being tracked
      */
-    public boolean isTracked(String fileName) {
+    public synchronized boolean isTracked(String fileName) {
         ensureInitialized();
         return data.installedFiles.contains(fileName);
     }
@@ -199,7 +153,7 @@ public class InstalledModsTracker {
     /**
      * Clear all tracking data
      */
-    public void clear() {
+    public synchronized void clear() {
         ensureInitialized();
         data.installedFiles.clear();
     }
@@ -207,7 +161,7 @@ public class InstalledModsTracker {
     /**
      * Check if the tracking file is empty or doesn't exist
      */
-    public boolean isEmpty() {
+    public synchronized boolean isEmpty() {
         ensureInitialized();
         return data.installedFiles.isEmpty();
     }
@@ -215,7 +169,7 @@ public class InstalledModsTracker {
     /**
      * Get the path to the tracking file
      */
-    public Path getTrackingFilePath() {
+    public synchronized Path getTrackingFilePath() {
         ensureInitialized();
         return trackingFilePath;
     }
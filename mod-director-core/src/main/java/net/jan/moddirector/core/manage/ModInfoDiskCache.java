@@ -6,15 +6,22 @@ import net.jan.moddirector.core.ModDirector;
 import net.jan.moddirector.core.configuration.ConfigurationController;
 import net.jan.moddirector.core.configuration.RemoteModInformation;
 import net.jan.moddirector.core.logging.ModDirectorSeverityLevel;
-import net.jan.moddirector.core.platform.PlatformSide;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.HashMap;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -25,28 +32,55 @@ import java.util.concurrent.ConcurrentHashMap;
  * <p>
  * Correctness: the key embeds the CurseForge/Modrinth file id (or the full URL for URL mods),
  * all of which are immutable, so any bundle change produces a new key and thus a natural cache
- * miss. Stale entries for removed mods simply linger harmlessly.
+ * miss.
+ * <p>
+ * Storage: a binary append-only log. Every save appends the entries put during this boot, a
+ * "touch" for entries which were looked up but not refreshed for {@link #TOUCH_AFTER_BOOTS} boots
+ * and a boot marker, so a warm boot appends a few bytes instead of rewriting the cache. Entries
+ * which were not looked up for {@link #EVICT_AFTER_BOOTS} boots (mods which left the pack) are
+ * evicted, and the log is compacted into one record per live entry once it holds more than twice
+ * as many records as live entries. Load time and file size therefore follow the size of the
+ * pack, not its history.
  * <p>
  * This class is fail-open: any resolve/load/save/parse failure is logged at debug and swallowed,
- * so a cache problem can never throw into the boot path. The backing map is concurrent because
- * {@link #put} is invoked from the parallel pre-install worker threads.
+ * so a cache problem can never throw into the boot path. A log with a truncated tail (a save that
+ * was interrupted) keeps every complete record and is compacted on the next save. The backing
+ * maps are concurrent because {@link #get} and {@link #put} are invoked from the parallel
+ * pre-install worker threads.
  * <p>
  * The cache file lives next to {@link InstalledModsTracker}'s tracking file (same
- * {@code file-director-snap/{modpack}/{mcVersion}/{side}} directory), named {@code .modinfo-cache.json}.
- * Path resolution and the initial load are deferred until first use, because the modpack
- * configuration is not loaded yet when the owning {@link InstallController} is constructed.
+ * {@code file-director-snap/{modpack}/{mcVersion}/{side}} directory), named {@code .modinfo-cache.bin}.
+ * The JSON file written by earlier versions is imported once and deleted. Path resolution and the
+ * initial load are deferred until first use, because the modpack configuration is not loaded yet
+ * when the owning {@link InstallController} is constructed.
  */
 public class ModInfoDiskCache {
     private static final String LOG_DOMAIN = "ModDirector/ModInfoDiskCache";
-    private static final String CACHE_FILE = ".modinfo-cache.json";
-    private static final String FILE_DIRECTOR_DIR = "file-director-snap";
+    private static final String CACHE_FILE = ".modinfo-cache.bin";
+    private static final String LEGACY_CACHE_FILE = ".modinfo-cache.json";
+
+    private static final int MAGIC = 0x4D444943; // "MDIC"
+    private static final int FORMAT_VERSION = 1;
+
+    private static final byte RECORD_PUT = 1;
+    private static final byte RECORD_TOUCH = 2;
+    private static final byte RECORD_BOOT = 3;
+
+    private static final int EVICT_AFTER_BOOTS = 20;
+    private static final int TOUCH_AFTER_BOOTS = EVICT_AFTER_BOOTS / 2;
+    private static final int COMPACTION_SLACK = 64;
 
     private final ModDirector director;
-    private final ConcurrentHashMap<String, RemoteModInformation> entries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CachedEntry> entries = new ConcurrentHashMap<>();
+    private final Set<String> putKeys = ConcurrentHashMap.newKeySet();
+    private final Set<String> usedKeys = ConcurrentHashMap.newKeySet();
 
     private Path cacheFilePath;
+    private Path legacyCacheFilePath;
+    private int currentBoot = 0;
+    private int recordCount = 0;
+    private boolean needsCompaction = false;
     private volatile boolean loaded = false;
-    private volatile boolean dirty = false;
 
     public ModInfoDiskCache(ModDirector director) {
         this.director = director;
@@ -57,45 +91,140 @@ public class ModInfoDiskCache {
             return null;
         }
         ensureLoaded();
-        return entries.get(key);
+        CachedEntry entry = entries.get(key);
+        if(entry == null) {
+            return null;
+        }
+        usedKeys.add(key);
+        return entry.information;
     }
 
     public void put(String key, RemoteModInformation info) {
-        if(key == null || info == null) {
+        if(key == null || info == null || info.getDisplayName() == null || info.getTargetFilename() == null) {
             return;
         }
         ensureLoaded();
-        entries.put(key, info);
-        dirty = true;
+        entries.put(key, new CachedEntry(info, currentBoot));
+        putKeys.add(key);
+        usedKeys.add(key);
     }
 
     /**
-     * Writes the cache to disk, but only if it changed since it was loaded. Never throws.
+     * Appends this boot's changes to the log, or compacts it if it grew too large or has entries to
+     * evict. Meant to be called once per boot. Never throws.
      */
     public void save() {
         ensureLoaded();
-        if(!dirty || cacheFilePath == null) {
+        if(cacheFilePath == null) {
             return;
         }
         try {
-            Map<String, Entry> out = new HashMap<>();
-            for(Map.Entry<String, RemoteModInformation> e : entries.entrySet()) {
-                RemoteModInformation info = e.getValue();
-                out.put(e.getKey(), new Entry(info.getDisplayName(), info.getTargetFilename()));
+            for(String key : usedKeys) {
+                CachedEntry entry = entries.get(key);
+                if(entry != null && !putKeys.contains(key) && currentBoot - entry.lastUsedBoot >= TOUCH_AFTER_BOOTS) {
+                    entry.lastUsedBoot = currentBoot;
+                    entry.touched = true;
+                }
             }
+
+            boolean evict = entries.values().stream()
+                    .anyMatch(entry -> currentBoot - entry.lastUsedBoot >= EVICT_AFTER_BOOTS);
+
             Files.createDirectories(cacheFilePath.getParent());
-            try(OutputStream stream = Files.newOutputStream(cacheFilePath)) {
-                ConfigurationController.OBJECT_MAPPER.writerWithDefaultPrettyPrinter().writeValue(stream, out);
+            if(needsCompaction || evict || !Files.isRegularFile(cacheFilePath)
+                    || recordCount > entries.size() * 2 + COMPACTION_SLACK) {
+                compact();
+            } else {
+                append();
+            }
+
+            putKeys.clear();
+            entries.values().forEach(entry -> entry.touched = false);
+
+            if(legacyCacheFilePath != null) {
+                Files.deleteIfExists(legacyCacheFilePath);
+                legacyCacheFilePath = null;
             }
-            dirty = false;
-            director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
-                    "CORE", "Saved %d cached mod info entries", out.size());
         } catch(Exception e) {
             director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
                     "CORE", "Failed to save mod info cache: %s", String.valueOf(e.getMessage()));
         }
     }
 
+    private void append() throws IOException {
+        int written = 0;
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(cacheFilePath, StandardOpenOption.APPEND)))) {
+            for(Map.Entry<String, CachedEntry> e : entries.entrySet()) {
+                if(putKeys.contains(e.getKey())) {
+                    writePut(out, e.getKey(), e.getValue());
+                    written++;
+                } else if(e.getValue().touched) {
+                    out.writeByte(RECORD_TOUCH);
+                    out.writeUTF(e.getKey());
+                    out.writeInt(e.getValue().lastUsedBoot);
+                    written++;
+                }
+            }
+            out.writeByte(RECORD_BOOT);
+            out.writeInt(currentBoot);
+        }
+        recordCount += written + 1;
+
+        director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
+                "CORE", "Appended %d mod info cache records", written);
+    }
+
+    private void compact() throws IOException {
+        entries.values().removeIf(entry -> currentBoot - entry.lastUsedBoot >= EVICT_AFTER_BOOTS);
+
+        Path tempFile = cacheFilePath.resolveSibling(cacheFilePath.getFileName() + ".tmp");
+        try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            for(Map.Entry<String, CachedEntry> e : entries.entrySet()) {
+                writePut(out, e.getKey(), e.getValue());
+            }
+            out.writeByte(RECORD_BOOT);
+            out.writeInt(currentBoot);
+        }
+        Files.move(tempFile, cacheFilePath, StandardCopyOption.REPLACE_EXISTING);
+
+        recordCount = entries.size() + 1;
+        needsCompaction = false;
+
+        director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
+                "CORE", "Compacted mod info cache to %d entries", entries.size());
+    }
+
+    private static void writePut(DataOutputStream out, String key, CachedEntry entry) throws IOException {
+        RemoteModInformation information = entry.information;
+
+        out.writeByte(RECORD_PUT);
+        out.writeUTF(key);
+        out.writeInt(entry.lastUsedBoot);
+        out.writeUTF(information.getDisplayName());
+        out.writeUTF(information.getTargetFilename());
+        writeNullableString(out, information.getDownloadUrl() == null ? null : information.getDownloadUrl().toExternalForm());
+        out.writeLong(information.getContentLength());
+        out.writeShort(information.getHashes().size());
+        for(Map.Entry<String, String> hash : information.getHashes().entrySet()) {
+            out.writeUTF(hash.getKey());
+            out.writeUTF(hash.getValue());
+        }
+    }
+
+    private static void writeNullableString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if(value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullableString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
     private synchronized void ensureLoaded() {
         if(loaded) {
             return;
@@ -110,22 +239,10 @@ public class ModInfoDiskCache {
             return;
         }
         try {
-            if(!Files.exists(cacheFilePath)) {
-                director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
-                        "CORE", "No mod info cache found, starting empty");
-                return;
-            }
-            try(InputStream stream = Files.newInputStream(cacheFilePath)) {
-                Map<String, Entry> loadedEntries = ConfigurationController.OBJECT_MAPPER.readValue(
-                        stream, new TypeReference<Map<String, Entry>>() { });
-                if(loadedEntries != null) {
-                    for(Map.Entry<String, Entry> e : loadedEntries.entrySet()) {
-                        Entry v = e.getValue();
-                        if(v != null && v.displayName != null && v.targetFilename != null) {
-                            entries.put(e.getKey(), new RemoteModInformation(v.displayName, v.targetFilename));
-                        }
-                    }
-                }
+            if(Files.exists(cacheFilePath)) {
+                loadLog();
+            } else {
+                loadLegacy();
             }
             director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
                     "CORE", "Loaded %d cached mod info entries", entries.size());
@@ -133,42 +250,89 @@ public class ModInfoDiskCache {
             director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
                     "CORE", "Failed to load mod info cache, starting empty: %s", String.valueOf(e.getMessage()));
             entries.clear();
+            currentBoot = 0;
+            needsCompaction = true;
         }
     }
 
-    /**
-     * Mirrors {@link InstalledModsTracker}'s file location so the cache sits next to the
-     * tracking file: {@code ~/file-director-snap/{modpack}/{mcVersion}/{side}/.modinfo-cache.json}.
-     */
-    private Path resolveCacheFileLocation() {
-        try {
-            String userHome = System.getProperty("user.home");
-            if(userHome == null || userHome.isEmpty()) {
-                return director.getPlatform().installationRoot().resolve(CACHE_FILE);
+    private void loadLog() throws IOException {
+        int lastBoot = 0;
+        try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFilePath)))) {
+            if(in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                throw new IOException("Unknown mod info cache format");
             }
 
-            String modpackName = "default";
-            String mcVersion = "unknown";
-            String side = "unknown";
+            try {
+                while(true) {
+                    int type = in.read();
+                    if(type < 0) {
+                        break;
+                    }
 
-            if(director.getConfigurationController() != null
-                    && director.getConfigurationController().getModpackConfiguration() != null) {
-                String packName = director.getConfigurationController().getModpackConfiguration().packName();
-                if(packName != null && !packName.isEmpty()) {
-                    modpackName = packName.replaceAll("[^a-zA-Z0-9._-]", "_");
-                }
-                String mcVer = director.getConfigurationController().getModpackConfiguration().mcVersion();
-                if(mcVer != null && !mcVer.isEmpty()) {
-                    mcVersion = mcVer.replaceAll("[^a-zA-Z0-9._-]", "_");
+                    if(type == RECORD_PUT) {
+                        String key = in.readUTF();
+                        int lastUsedBoot = in.readInt();
+                        String displayName = in.readUTF();
+                        String targetFilename = in.readUTF();
+                        String downloadUrl = readNullableString(in);
+                        long contentLength = in.readLong();
+                        int hashCount = in.readUnsignedShort();
+                        Map<String, String> hashes = new LinkedHashMap<>();
+                        for(int i = 0; i < hashCount; i++) {
+                            hashes.put(in.readUTF(), in.readUTF());
+                        }
+
+                        entries.put(key, new CachedEntry(new RemoteModInformation(displayName, targetFilename,
+                                downloadUrl == null ? null : new URL(downloadUrl), contentLength, hashes), lastUsedBoot));
+                    } else if(type == RECORD_TOUCH) {
+                        String key = in.readUTF();
+                        int lastUsedBoot = in.readInt();
+                        CachedEntry entry = entries.get(key);
+                        if(entry != null) {
+                            entry.lastUsedBoot = lastUsedBoot;
+                        }
+                    } else if(type == RECORD_BOOT) {
+                        lastBoot = in.readInt();
+                    } else {
+                        throw new IOException("Unknown mod info cache record type " + type);
+                    }
+                    recordCount++;
                 }
+            } catch(EOFException e) {
+                // Interrupted save, everything up to the last complete record is still valid
+                director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
+                        "CORE", "Mod info cache ends with an incomplete record, it will be compacted");
+                needsCompaction = true;
             }
+        }
+        currentBoot = lastBoot + 1;
+    }
 
-            PlatformSide platformSide = director.getPlatform().side();
-            if(platformSide != null) {
-                side = platformSide.toString().toLowerCase();
+    private void loadLegacy() throws IOException {
+        legacyCacheFilePath = cacheFilePath.resolveSibling(LEGACY_CACHE_FILE);
+        if(!Files.exists(legacyCacheFilePath)) {
+            director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
+                    "CORE", "No mod info cache found, starting empty");
+            return;
+        }
+
+        try(InputStream stream = Files.newInputStream(legacyCacheFilePath)) {
+            Map<String, LegacyEntry> loadedEntries = ConfigurationController.OBJECT_MAPPER.readValue(
+                    stream, new TypeReference<Map<String, LegacyEntry>>() { });
+            if(loadedEntries != null) {
+                for(Map.Entry<String, LegacyEntry> e : loadedEntries.entrySet()) {
+                    LegacyEntry v = e.getValue();
+                    if(v != null && v.displayName != null && v.targetFilename != null) {
+                        entries.put(e.getKey(), new CachedEntry(v.toInformation(), currentBoot));
+                    }
+                }
             }
+        }
+    }
 
-            return Paths.get(userHome, FILE_DIRECTOR_DIR, modpackName, mcVersion, side).resolve(CACHE_FILE);
+    private Path resolveCacheFileLocation() {
+        try {
+            return SnapDirectory.resolve(director).resolve(CACHE_FILE);
         } catch(Exception e) {
             director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
                     "CORE", "Failed to resolve mod info cache location, cache disabled: %s",
@@ -177,23 +341,43 @@ public class ModInfoDiskCache {
         }
     }
 
+    private static class CachedEntry {
+        private final RemoteModInformation information;
+        private volatile int lastUsedBoot;
+        private volatile boolean touched;
+
+        private CachedEntry(RemoteModInformation information, int lastUsedBoot) {
+            this.information = information;
+            this.lastUsedBoot = lastUsedBoot;
+        }
+    }
+
     /**
-     * Jackson-friendly DTO mirroring {@link RemoteModInformation}'s two fields. Kept private so
-     * {@code RemoteModInformation}'s existing (constructor-only, no-getter-setter) API is untouched.
+     * Jackson-friendly DTO of the JSON cache written by earlier versions, only read to import it.
+     * Entries written before the download fields existed load with them unset, the owning mod then
+     * refuses to restore from them and is queried again.
      */
-    private static class Entry {
+    private static class LegacyEntry {
         @JsonProperty("displayName")
         public String displayName;
 
         @JsonProperty("targetFilename")
         public String targetFilename;
 
-        public Entry() {
+        @JsonProperty("downloadUrl")
+        public URL downloadUrl;
+
+        @JsonProperty("contentLength")
+        public long contentLength = -1;
+
+        @JsonProperty("hashes")
+        public Map<String, String> hashes;
+
+        public LegacyEntry() {
         }
 
-        public Entry(String displayName, String targetFilename) {
-            this.displayName = displayName;
-            this.targetFilename = targetFilename;
+        public RemoteModInformation toInformation() {
+            return new RemoteModInformation(displayName, targetFilename, downloadUrl, contentLength, hashes);
         }
     }
 }
@@ -0,0 +1,248 @@
+package net.jan.moddirector.core.manage;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import net.jan.moddirector.core.ModDirector;
+import net.jan.moddirector.core.configuration.ConfigurationController;
+import net.jan.moddirector.core.logging.ModDirectorSeverityLevel;
+import net.jan.moddirector.core.util.DownloadDigest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Fingerprint of the state left behind by the last successful run: a digest of every file in the
+ * configuration directory (including {@code modpack.json}), the remote modpack version and a
+ * snapshot (names, sizes and modification times) of every directory the run installed to or
+ * modified. When all of it is unchanged, running the pipeline again would not do anything, so
+ * {@link ModDirector} can skip it entirely.
+ * <p>
+ * Packs using {@code .remote.json} configurations are never fingerprinted, their content can change
+ * without anything changing locally. Like the disk caches this class is fail-open: any problem
+ * simply results in a mismatch, so the full pipeline runs. The snap directory is shared by every
+ * instance of a pack, so the fingerprint is stored there once per installation root as
+ * {@code .pack-fingerprint-<root hash>.json}, and only covers directories inside that root.
+ */
+public class PackFingerprint {
+    private static final String LOG_DOMAIN = "ModDirector/PackFingerprint";
+    private static final String FINGERPRINT_FILE_PREFIX = ".pack-fingerprint-";
+
+    private final ModDirector director;
+    private final Path configurationDirectory;
+
+    public PackFingerprint(ModDirector director, Path configurationDirectory) {
+        this.director = director;
+        this.configurationDirectory = configurationDirectory;
+    }
+
+    /**
+     * Determines whether the configuration, the remote version and all recorded directories are
+     * exactly as they were when the fingerprint was recorded. The remote version is ignored if
+     * {@code checkRemoteVersion} is not set, which offline runs use as they could not fetch it.
+     * Never throws.
+     */
+    public boolean matches(String remoteVersion, boolean checkRemoteVersion) {
+        try {
+            Path fingerprintFile = fingerprintFile();
+            if(!Files.isRegularFile(fingerprintFile)) {
+                return false;
+            }
+
+            Fingerprint recorded;
+            try(InputStream stream = Files.newInputStream(fingerprintFile)) {
+                recorded = ConfigurationController.OBJECT_MAPPER.readValue(stream, Fingerprint.class);
+            }
+
+            Path installationRoot = installationRoot();
+            if(recorded.directories == null
+                    || !installationRoot.toString().equals(recorded.installationRoot)
+                    || (checkRemoteVersion && !Objects.equals(recorded.remoteVersion, remoteVersion))) {
+                return false;
+            }
+
+            String configurationDigest = digestConfiguration(configurationDirectory);
+            if(configurationDigest == null || !configurationDigest.equals(recorded.configurationDigest)) {
+                return false;
+            }
+
+            for(Map.Entry<String, String> directory : recorded.directories.entrySet()) {
+                Path path = configurationDirectory.getFileSystem().getPath(directory.getKey());
+                if(!path.startsWith(installationRoot)) {
+                    return false;
+                }
+
+                if(!snapshotDirectory(path).equals(directory.getValue())) {
+                    director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
+                            "CORE", "Directory %s changed since the last successful run", directory.getKey());
+                    return false;
+                }
+            }
+
+            return true;
+        } catch(Exception e) {
+            director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
+                    "CORE", "Failed to check pack fingerprint: %s", String.valueOf(e.getMessage()));
+            return false;
+        }
+    }
+
+    /**
+     * Records the current state after a successful run. {@code directories} are all directories the
+     * run installed files to or modified. Never throws.
+     */
+    public void record(String remoteVersion, Collection<Path> directories) {
+        try {
+            Path fingerprintFile = fingerprintFile();
+            Path installationRoot = installationRoot();
+
+            Fingerprint fingerprint = new Fingerprint();
+            fingerprint.installationRoot = installationRoot.toString();
+            fingerprint.configurationDigest = digestConfiguration(configurationDirectory);
+            fingerprint.remoteVersion = remoteVersion;
+            fingerprint.directories = new TreeMap<>();
+
+            if(fingerprint.configurationDigest == null) {
+                Files.deleteIfExists(fingerprintFile);
+                return;
+            }
+
+            for(Path directory : directories) {
+                Path normalized = directory.toAbsolutePath().normalize();
+                if(!normalized.startsWith(installationRoot)) {
+                    // Changes there could not be told apart from changes made by another instance
+                    director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
+                            "CORE", "Not fingerprinting, %s is outside the installation root", normalized);
+                    Files.deleteIfExists(fingerprintFile);
+                    return;
+                }
+                fingerprint.directories.put(normalized.toString(), snapshotDirectory(normalized));
+            }
+
+            Files.createDirectories(fingerprintFile.getParent());
+            try(OutputStream stream = Files.newOutputStream(fingerprintFile)) {
+                ConfigurationController.OBJECT_MAPPER.writeValue(stream, fingerprint);
+            }
+
+            director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
+                    "CORE", "Recorded pack fingerprint over %d directories", fingerprint.directories.size());
+        } catch(Exception e) {
+            director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
+                    "CORE", "Failed to record pack fingerprint: %s", String.valueOf(e.getMessage()));
+        }
+    }
+
+    /**
+     * Discards the recorded fingerprint, so the next boot runs the full pipeline. Never throws.
+     */
+    public void invalidate() {
+        try {
+            Files.deleteIfExists(fingerprintFile());
+        } catch(Exception e) {
+            director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
+                    "CORE", "Failed to delete pack fingerprint: %s", String.valueOf(e.getMessage()));
+        }
+    }
+
+    private Path installationRoot() {
+        return director.getPlatform().installationRoot().toAbsolutePath().normalize();
+    }
+
+    private Path fingerprintFile() throws NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        byte[] root = installationRoot().toString().getBytes(StandardCharsets.UTF_8);
+        return SnapDirectory.resolve(director).resolve(
+                FINGERPRINT_FILE_PREFIX + DownloadDigest.toHex(digest.digest(root)) + ".json");
+    }
+
+    /**
+     * Digests the relative path and content of every file in the configuration directory, or returns
+     * {@code null} if the configuration can not be fingerprinted.
+     */
+    static String digestConfiguration(Path configurationDirectory) throws IOException, NoSuchAlgorithmException {
+        if(!Files.isDirectory(configurationDirectory)) {
+            return null;
+        }
+
+        List<Path> files;
+        try(Stream<Path> paths = Files.walk(configurationDirectory)) {
+            files = paths.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+
+        MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        for(Path file : files) {
+            if(file.getFileName().toString().endsWith(".remote.json")) {
+                return null;
+            }
+
+            byte[] content = Files.readAllBytes(file);
+            digest.update(configurationDirectory.relativize(file).toString().getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(longBytes(content.length));
+            digest.update(content);
+        }
+
+        return DownloadDigest.toHex(digest.digest());
+    }
+
+    private static String snapshotDirectory(Path directory) throws IOException, NoSuchAlgorithmException {
+        List<String> entries = new ArrayList<>();
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for(Path entry : stream) {
+                BasicFileAttributes attributes = Files.readAttributes(entry, BasicFileAttributes.class);
+                entries.add(entry.getFileName() + "/" + attributes.size() + "/" +
+                        attributes.lastModifiedTime().toMillis() + "/" + attributes.isDirectory());
+            }
+        } catch(NoSuchFileException e) {
+            return "missing";
+        }
+
+        Collections.sort(entries);
+
+        MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        for(String entry : entries) {
+            digest.update(entry.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        return DownloadDigest.toHex(digest.digest());
+    }
+
+    private static byte[] longBytes(long value) {
+        byte[] bytes = new byte[8];
+        for(int i = 7; i >= 0; i--) {
+            bytes[i] = (byte) value;
+            value >>>= 8;
+        }
+        return bytes;
+    }
+
+    private static class Fingerprint {
+        @JsonProperty("installationRoot")
+        public String installationRoot;
+
+        @JsonProperty("configurationDigest")
+        public String configurationDigest;
+
+        @JsonProperty("remoteVersion")
+        public String remoteVersion;
+
+        @JsonProperty("directories")
+        public Map<String, String> directories;
+    }
+}
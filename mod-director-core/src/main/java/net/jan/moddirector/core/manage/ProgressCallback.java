@@ -8,4 +8,10 @@ public interface ProgressCallback {
     void done();
     void title(String newTitle);
     void indeterminate(boolean isIndeterminate);
+
+    /**
+     * Reports the combined current throughput of all downloads, called periodically while downloading.
+     */
+    default void reportThroughput(double bytesPerSecond) {
+    }
 }
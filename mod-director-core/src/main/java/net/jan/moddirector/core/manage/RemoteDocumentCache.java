@@ -0,0 +1,217 @@
+package net.jan.moddirector.core.manage;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import net.jan.moddirector.core.ModDirector;
+import net.jan.moddirector.core.configuration.ConfigurationController;
+import net.jan.moddirector.core.logging.ModDirectorSeverityLevel;
+import net.jan.moddirector.core.util.DownloadDigest;
+import net.jan.moddirector.core.util.WebClient;
+import net.jan.moddirector.core.util.WebGetResponse;
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Cache of small documents fetched on every boot, the remote configurations and the remote modpack
+ * version. Every document is stored with its {@code ETag} and {@code Last-Modified} validators in
+ * {@code .remote-cache} inside the snap directory, and revalidated with {@code If-None-Match} and
+ * {@code If-Modified-Since}, so an unchanged document costs a single 304 response. Within the
+ * configured max age the cached copy is used without asking the server at all.
+ * <p>
+ * When the document can not be fetched, the cached copy is used instead, which also makes remote
+ * configurations available offline. Like the other disk caches this class is fail-open: problems
+ * with the cache itself are logged at debug and the document is simply fetched.
+ */
+public class RemoteDocumentCache {
+    private static final String LOG_DOMAIN = "ModDirector/RemoteDocumentCache";
+    private static final String CACHE_DIRECTORY = ".remote-cache";
+
+    private final ModDirector director;
+
+    public RemoteDocumentCache(ModDirector director) {
+        this.director = director;
+    }
+
+    /**
+     * Returns the content of the document at {@code url}, using the cached copy if it is younger than
+     * {@code maxAge} milliseconds or the server confirms it is unchanged. Throws if the document can
+     * neither be fetched nor taken from the cache.
+     */
+    public byte[] fetch(URL url, long maxAge) throws IOException {
+        Path metadataFile = metadataFile(url);
+        Path bodyFile = metadataFile != null ? bodyFile(metadataFile) : null;
+        CachedDocument cached = metadataFile != null ? read(url, metadataFile, bodyFile) : null;
+        long now = System.currentTimeMillis();
+
+        if(cached != null && maxAge > 0 && now - cached.metadata.fetchedAt < maxAge) {
+            director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
+                    "CORE", "Using cached %s without revalidating", url);
+            return cached.body;
+        }
+
+        Map<String, String> requestHeaders = new HashMap<>();
+        if(cached != null) {
+            if(cached.metadata.etag != null) {
+                requestHeaders.put("If-None-Match", cached.metadata.etag);
+            }
+            if(cached.metadata.lastModified != null) {
+                requestHeaders.put("If-Modified-Since", cached.metadata.lastModified);
+            }
+        }
+
+        try(WebGetResponse response = WebClient.get(url, requestHeaders)) {
+            if(cached != null && response.getStatusCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
+                        "CORE", "%s is unchanged", url);
+                cached.metadata.fetchedAt = now;
+                writeMetadata(metadataFile, cached.metadata);
+                return cached.body;
+            }
+
+            byte[] body = IOUtils.toByteArray(response.getInputStream());
+            if(metadataFile != null) {
+                Metadata metadata = new Metadata();
+                metadata.url = url.toExternalForm();
+                metadata.etag = response.getHeader("ETag");
+                metadata.lastModified = response.getHeader("Last-Modified");
+                metadata.fetchedAt = now;
+                metadata.size = body.length;
+                write(metadataFile, bodyFile, metadata, body);
+            }
+            return body;
+        } catch(IOException e) {
+            if(cached == null) {
+                throw e;
+            }
+
+            director.getLogger().log(ModDirectorSeverityLevel.WARN, LOG_DOMAIN,
+                    "CORE", "Failed to fetch %s, using the cached copy instead: %s", url, String.valueOf(e.getMessage()));
+            return cached.body;
+        }
+    }
+
+    /**
+     * Returns the cached copy of the document at {@code url} if it was fetched or revalidated less
+     * than {@code maxAge} milliseconds ago, {@code null} otherwise. Never makes a request.
+     */
+    public byte[] cached(URL url, long maxAge) {
+        Path metadataFile = metadataFile(url);
+        CachedDocument cached = metadataFile != null ? read(url, metadataFile, bodyFile(metadataFile)) : null;
+        if(cached == null || System.currentTimeMillis() - cached.metadata.fetchedAt >= maxAge) {
+            return null;
+        }
+        return cached.body;
+    }
+
+    private Path metadataFile(URL url) {
+        try {
+            return SnapDirectory.resolve(director).resolve(CACHE_DIRECTORY).resolve(key(url) + ".json");
+        } catch(Exception e) {
+            director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
+                    "CORE", "Failed to resolve remote document cache location: %s", String.valueOf(e.getMessage()));
+            return null;
+        }
+    }
+
+    private static Path bodyFile(Path metadataFile) {
+        String name = metadataFile.getFileName().toString();
+        return metadataFile.resolveSibling(name.substring(0, name.length() - ".json".length()) + ".body");
+    }
+
+    private CachedDocument read(URL url, Path metadataFile, Path bodyFile) {
+        if(!Files.isRegularFile(metadataFile)) {
+            return null;
+        }
+
+        try {
+            Metadata metadata;
+            try(InputStream stream = Files.newInputStream(metadataFile)) {
+                metadata = ConfigurationController.OBJECT_MAPPER.readValue(stream, Metadata.class);
+            }
+
+            if(!url.toExternalForm().equals(metadata.url)) {
+                return null;
+            }
+
+            byte[] body = Files.readAllBytes(bodyFile);
+            if(body.length != metadata.size) {
+                return null;
+            }
+            return new CachedDocument(metadata, body);
+        } catch(Exception e) {
+            director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
+                    "CORE", "Failed to read cached %s: %s", url, String.valueOf(e.getMessage()));
+            return null;
+        }
+    }
+
+    private void write(Path metadataFile, Path bodyFile, Metadata metadata, byte[] body) {
+        try {
+            Files.createDirectories(bodyFile.getParent());
+            Path tempFile = bodyFile.resolveSibling(bodyFile.getFileName() + "." + Thread.currentThread().getId() + ".tmp");
+            Files.write(tempFile, body);
+            Files.move(tempFile, bodyFile, StandardCopyOption.REPLACE_EXISTING);
+        } catch(IOException e) {
+            director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
+                    "CORE", "Failed to cache %s: %s", metadata.url, String.valueOf(e.getMessage()));
+            return;
+        }
+        writeMetadata(metadataFile, metadata);
+    }
+
+    private void writeMetadata(Path metadataFile, Metadata metadata) {
+        try {
+            Path tempFile = metadataFile.resolveSibling(metadataFile.getFileName() + "." + Thread.currentThread().getId() + ".tmp");
+            try(OutputStream stream = Files.newOutputStream(tempFile)) {
+                ConfigurationController.OBJECT_MAPPER.writeValue(stream, metadata);
+            }
+            Files.move(tempFile, metadataFile, StandardCopyOption.REPLACE_EXISTING);
+        } catch(IOException e) {
+            director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
+                    "CORE", "Failed to cache %s: %s", metadata.url, String.valueOf(e.getMessage()));
+        }
+    }
+
+    private static String key(URL url) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        return DownloadDigest.toHex(digest.digest(url.toExternalForm().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static class CachedDocument {
+        private final Metadata metadata;
+        private final byte[] body;
+
+        private CachedDocument(Metadata metadata, byte[] body) {
+            this.metadata = metadata;
+            this.body = body;
+        }
+    }
+
+    private static class Metadata {
+        @JsonProperty("url")
+        public String url;
+
+        @JsonProperty("etag")
+        public String etag;
+
+        @JsonProperty("lastModified")
+        public String lastModified;
+
+        @JsonProperty("fetchedAt")
+        public long fetchedAt;
+
+        @JsonProperty("size")
+        public long size;
+    }
+}
@@ -0,0 +1,180 @@
+package net.jan.moddirector.core.manage;
+
+import net.jan.moddirector.core.ModDirector;
+import net.jan.moddirector.core.configuration.ModDirectorRemoteMod;
+import net.jan.moddirector.core.configuration.RemoteModInformation;
+import net.jan.moddirector.core.logging.ModDirectorSeverityLevel;
+import net.jan.moddirector.core.util.DownloadDigest;
+import net.jan.moddirector.core.util.IOOperation;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Content-addressed store of downloaded mod files shared by all packs and instances of the user,
+ * located at {@code ~/file-director-snap/store/{algorithm}/{first two hex digits}/{hash}}. Files are
+ * keyed by a hash known before the download, either configured in the pack's metadata or reported
+ * by the backend, so a second instance of a pack (or another pack using the same mod) installs the
+ * file from the store instead of downloading it again.
+ * <p>
+ * Files are hardlinked between the store and the installation when both are on the same file
+ * system, and copied otherwise. Only files whose hash was verified are added, and files taken from
+ * the store are verified again, by the store or by the caller, before they count as installed. Mods which are
+ * extracted are never stored, what ends up on disk is not the downloaded file.
+ * <p>
+ * The store is fail-open: every failure is logged at debug and the mod is downloaded as usual. It
+ * can be turned off with {@code -Dmoddirector.sharedStore=false}.
+ */
+public class SharedArtifactStore {
+    private static final String LOG_DOMAIN = "ModDirector/SharedArtifactStore";
+
+    // Strongest first, the store should not be keyed by a hash that is easy to collide
+    private static final String[] ALGORITHM_PREFERENCE = {"SHA-512", "SHA-256", "SHA-1", "MD5"};
+
+    private final ModDirector director;
+    private final Path storeRoot;
+
+    public SharedArtifactStore(ModDirector director) {
+        this.director = director;
+        this.storeRoot = Boolean.parseBoolean(System.getProperty("moddirector.sharedStore", "true")) ?
+                SnapDirectory.resolveSharedStore() : null;
+    }
+
+    /**
+     * Determines the key the file of {@code mod} is stored under, or {@code null} if it can not be
+     * stored because no usable hash is known in advance.
+     */
+    public StoreKey keyFor(ModDirectorRemoteMod mod, RemoteModInformation information) {
+        if(storeRoot == null || mod.getInstallationPolicy().shouldExtract()) {
+            return null;
+        }
+
+        Map<String, String> known = new LinkedHashMap<>(information.getHashes());
+        if(mod.getMetadata() != null) {
+            known.putAll(mod.getMetadata().getHashes());
+        }
+
+        for(String algorithm : ALGORITHM_PREFERENCE) {
+            String hash = known.get(algorithm);
+            if(hash != null && hash.matches("[0-9a-fA-F]{8,}")) {
+                return new StoreKey(algorithm, hash.toLowerCase(Locale.ROOT));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Installs the stored file for {@code key} to {@code targetFile}. Returns {@code false} if the
+     * store does not have it or it could not be installed. If {@code verify} is set, the stored file
+     * is hashed first and discarded if it does not match {@code key}; callers which verify the
+     * installed file against the same hash anyway can skip this.
+     */
+    public boolean restore(StoreKey key, Path targetFile, boolean verify) {
+        Path storedFile = storedFile(key);
+        if(!Files.isRegularFile(storedFile)) {
+            return false;
+        }
+
+        try {
+            if(verify && !key.hash.equals(hash(storedFile, key.algorithm))) {
+                director.getLogger().log(ModDirectorSeverityLevel.WARN, LOG_DOMAIN,
+                        "CORE", "Stored file %s does not match its hash, discarding it", storedFile);
+                discard(key);
+                return false;
+            }
+
+            Path tempFile = targetFile.resolveSibling(targetFile.getFileName() + ".store");
+            linkOrCopy(storedFile, tempFile);
+            IOOperation.moveIntoPlace(tempFile, targetFile);
+            return true;
+        } catch(IOException | NoSuchAlgorithmException e) {
+            director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
+                    "CORE", "Failed to install %s from the shared store: %s", targetFile, String.valueOf(e.getMessage()));
+            return false;
+        }
+    }
+
+    /**
+     * Adds a downloaded file to the store. If {@code verified} is {@code false}, the file is hashed
+     * first and only added if it matches {@code key}. Never throws.
+     */
+    public void add(StoreKey key, Path file, boolean verified) {
+        Path storedFile = storedFile(key);
+        if(Files.isRegularFile(storedFile)) {
+            return;
+        }
+
+        try {
+            if(!verified && !key.hash.equals(hash(file, key.algorithm))) {
+                director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
+                        "CORE", "Not storing %s, its %s does not match the expected one", file, key.algorithm);
+                return;
+            }
+
+            Files.createDirectories(storedFile.getParent());
+            Path tempFile = storedFile.resolveSibling(storedFile.getFileName() + "." + Thread.currentThread().getId() + ".tmp");
+            linkOrCopy(file, tempFile);
+            Files.move(tempFile, storedFile, StandardCopyOption.REPLACE_EXISTING);
+        } catch(IOException | NoSuchAlgorithmException e) {
+            director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
+                    "CORE", "Failed to add %s to the shared store: %s", file, String.valueOf(e.getMessage()));
+        }
+    }
+
+    /**
+     * Removes a stored file which turned out not to match its key. Never throws.
+     */
+    public void discard(StoreKey key) {
+        try {
+            Files.deleteIfExists(storedFile(key));
+        } catch(IOException e) {
+            director.getLogger().log(ModDirectorSeverityLevel.DEBUG, LOG_DOMAIN,
+                    "CORE", "Failed to discard %s from the shared store: %s", key.hash, String.valueOf(e.getMessage()));
+        }
+    }
+
+    private Path storedFile(StoreKey key) {
+        return storeRoot
+                .resolve(key.algorithm.toLowerCase(Locale.ROOT).replace("-", ""))
+                .resolve(key.hash.substring(0, 2))
+                .resolve(key.hash);
+    }
+
+    private static void linkOrCopy(Path source, Path target) throws IOException {
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, source);
+        } catch(IOException | UnsupportedOperationException e) {
+            // Different file systems, or no hardlink support
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static String hash(Path file, String algorithm) throws IOException, NoSuchAlgorithmException {
+        DownloadDigest digest = new DownloadDigest(Collections.singletonMap(algorithm, MessageDigest.getInstance(algorithm)));
+        digest.update(file);
+        return digest.finish().get(algorithm);
+    }
+
+    public static class StoreKey {
+        private final String algorithm;
+        private final String hash;
+
+        private StoreKey(String algorithm, String hash) {
+            this.algorithm = algorithm;
+            this.hash = hash;
+        }
+
+        public String getAlgorithm() {
+            return algorithm;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package net.jan.moddirector.core.manage;
+
+import net.jan.moddirector.core.ModDirector;
+import net.jan.moddirector.core.platform.PlatformSide;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Resolves the per-pack state directory {@code ~/file-director-snap/{modpack}/{mcVersion}/{side}}
+ * which holds {@link InstalledModsTracker}'s tracking file and the disk caches. Falls back to the
+ * installation root if there is no user home. Must not be called before the modpack configuration
+ * has been loaded, as the pack name and Minecraft version are part of the path.
+ */
+public class SnapDirectory {
+    private static final String FILE_DIRECTOR_DIR = "file-director-snap";
+
+    public static Path resolve(ModDirector director) {
+        String userHome = System.getProperty("user.home");
+        if(userHome == null || userHome.isEmpty()) {
+            return director.getPlatform().installationRoot();
+        }
+
+        String modpackName = "default";
+        String mcVersion = "unknown";
+        String side = "unknown";
+
+        if(director.getConfigurationController() != null
+                && director.getConfigurationController().getModpackConfiguration() != null) {
+            String packName = director.getConfigurationController().getModpackConfiguration().packName();
+            if(packName != null && !packName.isEmpty()) {
+                modpackName = packName.replaceAll("[^a-zA-Z0-9._-]", "_");
+            }
+            String mcVer = director.getConfigurationController().getModpackConfiguration().mcVersion();
+            if(mcVer != null && !mcVer.isEmpty()) {
+                mcVersion = mcVer.replaceAll("[^a-zA-Z0-9._-]", "_");
+            }
+        }
+
+        PlatformSide platformSide = director.getPlatform().side();
+        if(platformSide != null) {
+            side = platformSide.toString().toLowerCase();
+        }
+
+        return Paths.get(userHome, FILE_DIRECTOR_DIR, modpackName, mcVersion, side);
+    }
+
+    /**
+     * Resolves the root of the store shared by all packs, {@code ~/file-director-snap/store}, or
+     * returns {@code null} if there is no user home to share it in.
+     */
+    public static Path resolveSharedStore() {
+        String userHome = System.getProperty("user.home");
+        if(userHome == null || userHome.isEmpty()) {
+            return null;
+        }
+
+        return Paths.get(userHome, FILE_DIRECTOR_DIR, "store");
+    }
+}
@@ -6,21 +6,38 @@ import net.jan.moddirector.core.configuration.ConfigurationController;
 import net.jan.moddirector.core.exception.ModDirectorException;
 import net.jan.moddirector.core.logging.ModDirectorSeverityLevel;
 import net.jan.moddirector.core.manage.ModDirectorError;
-import net.jan.moddirector.core.util.WebClient;
-import net.jan.moddirector.core.util.WebGetResponse;
+import net.jan.moddirector.core.manage.RemoteDocumentCache;
 
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * Checks download urls against the StopModReposts database. The database is kept in the
+ * {@link RemoteDocumentCache}: a cached copy is used right away and, once it is older than a day,
+ * revalidated in the background for the checks that follow. Only the very first run has to wait
+ * for the download.
+ * <p>
+ * Flagged domains are indexed by host, a url is flagged if its host or any parent domain of it is.
+ * The few entries which are not plain host names are still matched against the whole url.
+ */
 public class StopModReposts {
-    private static final List<StopModRepostsEntry> ENTRIES = new ArrayList<>();
+    private static final String DATABASE_URL = "https://api.stopmodreposts.org/sites.json";
+    private static final long MAX_AGE = TimeUnit.DAYS.toMillis(1);
+
     private static final AtomicBoolean INITIALIZED = new AtomicBoolean(false);
     private static final Object INITIALIZATION_LOCK = new Object();
 
+    private static volatile Index index = new Index(Collections.emptyList());
+
     public static void check(ModDirector director, URL url) throws ModDirectorException {
         if(!INITIALIZED.get()) {
             synchronized(INITIALIZATION_LOCK) {
@@ -32,26 +49,25 @@ public class StopModReposts {
 
         director.getLogger().log(ModDirectorSeverityLevel.DEBUG, "StopModReposts", "CORE",
             "Checking %s against StopModReposts database", url.toExternalForm());
-        for(StopModRepostsEntry entry : ENTRIES) {
-            if(url.toExternalForm().contains(entry.domain()) ) {
-                director.getLogger().log(ModDirectorSeverityLevel.ERROR, "StopModReposts", "CORE",
-                    "STOP! Download URL %s is flagged in StopModReposts database, ABORTING!",
-                    url.toExternalForm());
-                director.getLogger().log(ModDirectorSeverityLevel.ERROR, "StopModReposts", "CORE",
-                    "Domain %s is flagged", entry.domain());
+        StopModRepostsEntry entry = index.find(url);
+        if(entry != null) {
+            director.getLogger().log(ModDirectorSeverityLevel.ERROR, "StopModReposts", "CORE",
+                "STOP! Download URL %s is flagged in StopModReposts database, ABORTING!",
+                url.toExternalForm());
+            director.getLogger().log(ModDirectorSeverityLevel.ERROR, "StopModReposts", "CORE",
+                "Domain %s is flagged", entry.domain());
+            director.getLogger().log(ModDirectorSeverityLevel.ERROR, "StopModReposts", "CORE",
+                "Reason: %s", entry.reason());
+            if(!entry.notes().isEmpty()) {
                 director.getLogger().log(ModDirectorSeverityLevel.ERROR, "StopModReposts", "CORE",
-                    "Reason: ", entry.reason());
-                if(!entry.notes().isEmpty()) {
-                    director.getLogger().log(ModDirectorSeverityLevel.ERROR, "StopModReposts", "CORE",
-                        "Notes: ", entry.notes());
-                }
-                director.addError(new ModDirectorError(ModDirectorSeverityLevel.ERROR,
-                    "Found URL " + url.toExternalForm() + " on domain " + entry.domain() + " flagged " +
-                        "in the StopModReposts database! Please use legal download pages, " +
-                        "ModDirector has aborted the launch."));
-                throw new ModDirectorException("Found flagged URL " + url.toExternalForm() +
-                    " in StopModReposts database");
+                    "Notes: %s", entry.notes());
             }
+            director.addError(new ModDirectorError(ModDirectorSeverityLevel.ERROR,
+                "Found URL " + url.toExternalForm() + " on domain " + entry.domain() + " flagged " +
+                    "in the StopModReposts database! Please use legal download pages, " +
+                    "ModDirector has aborted the launch."));
+            throw new ModDirectorException("Found flagged URL " + url.toExternalForm() +
+                " in StopModReposts database");
         }
     }
 
@@ -59,20 +75,120 @@ public class StopModReposts {
         director.getLogger().log(ModDirectorSeverityLevel.DEBUG, "StopModReposts", "CORE",
             "Initializing StopModReposts module");
 
-        try(WebGetResponse response =
-                WebClient.get(new URL("https://api.stopmodreposts.org/sites.json"))) {
+        URL databaseUrl;
+        try {
+            databaseUrl = new URL(DATABASE_URL);
+        } catch(MalformedURLException e) {
+            throw new RuntimeException(DATABASE_URL + " seems to be an invalid URL?", e);
+        }
+
+        RemoteDocumentCache cache = director.getRemoteDocumentCache();
+        byte[] fresh = cache.cached(databaseUrl, MAX_AGE);
+        byte[] stale = fresh == null ? cache.cached(databaseUrl, Long.MAX_VALUE) : null;
+
+        if(fresh != null) {
+            load(director, fresh);
+        } else if(stale != null) {
+            load(director, stale);
+            if(!director.isOffline()) {
+                refreshInBackground(director, cache, databaseUrl);
+            }
+        } else if(director.isOffline()) {
+            // Nothing is downloaded while offline, so there is nothing to check either
+            director.getLogger().log(ModDirectorSeverityLevel.DEBUG, "StopModReposts", "CORE",
+                    "Running in offline mode, not retrieving StopModReposts database");
+        } else {
+            try {
+                load(director, cache.fetch(databaseUrl, MAX_AGE));
+            } catch(IOException e) {
+                director.getLogger().log(ModDirectorSeverityLevel.ERROR, "StopModReposts", "CORE",
+                        "Failed to retrieve StopModReposts database");
+            }
+        }
+
+        INITIALIZED.set(true);
+    }
+
+    private static void refreshInBackground(ModDirector director, RemoteDocumentCache cache, URL databaseUrl) {
+        Thread thread = new Thread(() -> {
+            try {
+                load(director, cache.fetch(databaseUrl, MAX_AGE));
+            } catch(IOException e) {
+                director.getLogger().log(ModDirectorSeverityLevel.WARN, "StopModReposts", "CORE",
+                        "Failed to refresh StopModReposts database, using the cached copy");
+            }
+        }, "ModDirector StopModReposts refresh");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void load(ModDirector director, byte[] database) {
+        try {
             JavaType targetType = ConfigurationController.OBJECT_MAPPER.getTypeFactory().
                 constructCollectionType(List.class, StopModRepostsEntry.class);
 
-            ENTRIES.addAll(ConfigurationController.OBJECT_MAPPER.readValue(response.getInputStream(), targetType));
-        } catch(MalformedURLException e) {
-            throw new RuntimeException(
-                "https://api.stopmodreposts.org/sites.json seems to be an invalid URL?", e);
+            index = new Index(ConfigurationController.OBJECT_MAPPER.readValue(database, targetType));
         } catch(IOException e) {
             director.getLogger().log(ModDirectorSeverityLevel.ERROR, "StopModReposts", "CORE",
-                    "Failed to retrieve StopModReposts database");
+                    "Failed to parse StopModReposts database");
         }
+    }
 
-        INITIALIZED.set(true);
+    /**
+     * Flagged domains keyed by host name, so a lookup costs one hash probe per label of the host
+     * instead of a scan over all entries.
+     */
+    private static class Index {
+        private final Map<String, StopModRepostsEntry> hosts = new HashMap<>();
+        private final List<StopModRepostsEntry> others = new ArrayList<>();
+
+        private Index(List<StopModRepostsEntry> entries) {
+            for(StopModRepostsEntry entry : entries) {
+                String domain = entry.domain().trim().toLowerCase(Locale.ROOT);
+                if(domain.isEmpty()) {
+                    continue;
+                }
+
+                if(isHostName(domain)) {
+                    hosts.putIfAbsent(domain, entry);
+                } else {
+                    others.add(entry);
+                }
+            }
+        }
+
+        private StopModRepostsEntry find(URL url) {
+            String host = url.getHost().toLowerCase(Locale.ROOT);
+            while(!host.isEmpty()) {
+                StopModRepostsEntry entry = hosts.get(host);
+                if(entry != null) {
+                    return entry;
+                }
+
+                int dot = host.indexOf('.');
+                if(dot < 0) {
+                    break;
+                }
+                host = host.substring(dot + 1);
+            }
+
+            String externalForm = url.toExternalForm();
+            for(StopModRepostsEntry entry : others) {
+                if(externalForm.contains(entry.domain())) {
+                    return entry;
+                }
+            }
+            return null;
+        }
+
+        private static boolean isHostName(String domain) {
+            for(int i = 0; i < domain.length(); i++) {
+                char c = domain.charAt(i);
+                if(!(c >= 'a' && c <= 'z') && !(c >= '0' && c <= '9') && c != '-' && c != '.') {
+                    return false;
+                }
+            }
+            return !domain.startsWith(".") && !domain.endsWith(".");
+        }
     }
 }
@@ -5,8 +5,11 @@ import net.jan.moddirector.core.configuration.ModDirectorRemoteMod;
 import net.jan.moddirector.core.configuration.RemoteModInformation;
 import net.jan.moddirector.core.exception.ModDirectorException;
 import net.jan.moddirector.core.manage.ProgressCallback;
+import net.jan.moddirector.core.util.DownloadDigest;
 
+import java.net.URL;
 import java.nio.file.Path;
+import java.util.Locale;
 
 public class InstallableMod {
     private final ModDirectorRemoteMod remoteMod;
@@ -32,7 +35,31 @@ public class InstallableMod {
         return targetFile;
     }
 
-    public void performInstall(ModDirector director, ProgressCallback callback) throws ModDirectorException {
-        remoteMod.performInstall(targetFile, callback, director, remoteInformation);
+    /**
+     * @return the host the file of this mod is downloaded from, or {@code null} if it is not known in advance
+     */
+    public String getDownloadHost() {
+        URL url = remoteInformation.getDownloadUrl();
+        if(url == null) {
+            try {
+                url = remoteMod.validationUrl(remoteInformation);
+            } catch(ModDirectorException e) {
+                return null;
+            }
+        }
+
+        if(url == null || url.getHost() == null || url.getHost().isEmpty()) {
+            return null;
+        }
+        return url.getHost().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Installs the mod to {@code file}, which is either the target file or a temporary file next to
+     * it which the caller moves into place after verifying it.
+     */
+    public void performInstall(ModDirector director, ProgressCallback callback, DownloadDigest digest, Path file)
+            throws ModDirectorException {
+        remoteMod.performInstall(file, callback, director, remoteInformation, digest);
     }
 }
@@ -5,6 +5,7 @@ import net.jan.moddirector.core.configuration.ModDirectorRemoteMod;
 import net.jan.moddirector.core.manage.install.InstallableMod;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -23,10 +24,16 @@ public class InstallSelector {
         this.optionsToMod = new HashMap<>();
     }
 
+    /**
+     * Builds the options from the results of the pre-install phase. Mods in {@code alreadyInstalling}
+     * were handed to the installer before the selection and are neither offered nor returned by
+     * {@link #computeModsToInstall()} again.
+     */
     public void accept(
             List<ModDirectorRemoteMod> excludedMods,
             List<InstallableMod> freshInstalls,
-            List<InstallableMod> reInstall
+            List<InstallableMod> reInstall,
+            Collection<InstallableMod> alreadyInstalling
     ) {
         List<String> ignoredGroups = new ArrayList<>();
 
@@ -53,13 +60,15 @@ public class InstallSelector {
                             ignoredGroups.add(group);
                         }
                     }
-                    alwaysInstall.add(mod);
+                    if(!alreadyInstalling.contains(mod)) {
+                        alwaysInstall.add(mod);
+                    }
                 }
             }
         }
 
         for(InstallableMod mod : freshInstalls) {
-            if(mod != null) {
+            if(mod != null && !alreadyInstalling.contains(mod)) {
                 ModDirectorRemoteMod remoteMod = mod.getRemoteMod();
                 if(remoteMod != null) {
                     InstallationPolicy policy = remoteMod.getInstallationPolicy();
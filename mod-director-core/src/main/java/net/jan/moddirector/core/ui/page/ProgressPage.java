@@ -4,12 +4,19 @@ import net.jan.moddirector.core.configuration.modpack.ModpackConfiguration;
 import net.jan.moddirector.core.configuration.modpack.ModpackIconConfiguration;
 import net.jan.moddirector.core.manage.ProgressCallback;
 import net.jan.moddirector.core.ui.ImageLoader;
+import net.jan.moddirector.core.util.ThroughputMeter;
 
 import javax.swing.*;
 import javax.swing.border.TitledBorder;
 import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
 
 public class ProgressPage extends JPanel {
+    // Only accessed on the event dispatch thread
+    private final List<VisualProgressCallback> activeCallbacks = new ArrayList<>();
+    private ProgressPage successor;
+
     public ProgressPage(ModpackConfiguration configuration, String title) {
 
         setLayout(new BoxLayout(this, BoxLayout.Y_AXIS));
@@ -31,20 +38,54 @@ public class ProgressPage extends JPanel {
         return new VisualProgressCallback(title, initialMessage);
     }
 
+    /**
+     * Moves the progress bars of all callbacks of {@code previous} which are not done yet to this page,
+     * so work started while {@code previous} was shown stays visible. Callbacks created on
+     * {@code previous} afterwards are shown on this page as well.
+     */
+    public void takeOver(ProgressPage previous) {
+        SwingUtilities.invokeLater(() -> {
+            previous.successor = this;
+            for(VisualProgressCallback callback : previous.activeCallbacks) {
+                previous.remove(callback.progressBar);
+                callback.page = this;
+                activeCallbacks.add(callback);
+                add(callback.progressBar);
+            }
+            previous.activeCallbacks.clear();
+            previous.revalidate();
+            revalidate();
+        });
+    }
+
+    private ProgressPage currentPage() {
+        ProgressPage page = this;
+        while(page.successor != null) {
+            page = page.successor;
+        }
+        return page;
+    }
+
     private class VisualProgressCallback implements ProgressCallback {
+        // The page showing the progress bar, only accessed on the event dispatch thread
+        private ProgressPage page;
         private JProgressBar progressBar;
         private int currentStep;
+        private volatile String message;
         boolean done;
 
         private VisualProgressCallback(String title, String initialMessage) {
+            message = initialMessage;
             SwingUtilities.invokeLater(() -> {
                 progressBar = new JProgressBar();
                 progressBar.setString(initialMessage);
                 progressBar.setStringPainted(true);
                 progressBar.setBorder(new TitledBorder(title));
 
-                add(progressBar);
-                revalidate();
+                page = currentPage();
+                page.activeCallbacks.add(this);
+                page.add(progressBar);
+                page.revalidate();
             });
 
             done = false;
@@ -68,6 +109,7 @@ public class ProgressPage extends JPanel {
 
         @Override
         public void message(String message) {
+            this.message = message;
             SwingUtilities.invokeLater(() -> progressBar.setString(message));
         }
 
@@ -84,8 +126,9 @@ public class ProgressPage extends JPanel {
             }
 
             SwingUtilities.invokeLater(() -> {
-                remove(progressBar);
-                revalidate();
+                page.activeCallbacks.remove(this);
+                page.remove(progressBar);
+                page.revalidate();
             });
             done = true;
 
@@ -100,5 +143,11 @@ public class ProgressPage extends JPanel {
         public void indeterminate(boolean isIndeterminate) {
             SwingUtilities.invokeLater(() -> progressBar.setIndeterminate(isIndeterminate));
         }
+
+        @Override
+        public void reportThroughput(double bytesPerSecond) {
+            String text = message + " (" + ThroughputMeter.format(bytesPerSecond) + ")";
+            SwingUtilities.invokeLater(() -> progressBar.setString(text));
+        }
     }
 }
@@ -0,0 +1,68 @@
+package net.jan.moddirector.core.util;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket shared by all downloads, limiting their combined rate to a configured number of bytes
+ * per second. The bucket holds at most one second worth of bytes, so after an idle phase downloads
+ * may burst for up to a second. Takers go into debt instead of waiting for a full bucket, which keeps
+ * the lock short and lets every thread make progress in turn.
+ * <p>
+ * While no limit is configured {@link #acquire(int)} only reads a volatile field.
+ */
+public class BandwidthLimiter {
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final Object LOCK = new Object();
+
+    private static volatile long bytesPerSecond = 0;
+
+    private static long tokens;
+    private static long lastRefill;
+
+    /**
+     * Limits all following transfers to {@code bytesPerSecond}, 0 or less disables the limit.
+     */
+    public static void configure(long bytesPerSecond) {
+        synchronized(LOCK) {
+            BandwidthLimiter.bytesPerSecond = Math.max(0, bytesPerSecond);
+            tokens = BandwidthLimiter.bytesPerSecond;
+            lastRefill = System.nanoTime();
+        }
+    }
+
+    public static long bytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Takes {@code bytes} from the bucket, blocking as long as needed to stay within the limit.
+     */
+    public static void acquire(int bytes) throws InterruptedIOException {
+        long rate = bytesPerSecond;
+        if(rate <= 0) {
+            return;
+        }
+
+        long waitNanos;
+        synchronized(LOCK) {
+            long now = System.nanoTime();
+            // Capping the elapsed time keeps the multiplication from overflowing after long idle phases
+            long elapsed = Math.min(now - lastRefill, NANOS_PER_SECOND);
+            tokens = Math.min(rate, tokens + elapsed * rate / NANOS_PER_SECOND);
+            lastRefill = now;
+
+            tokens -= bytes;
+            waitNanos = tokens >= 0 ? 0 : -tokens * NANOS_PER_SECOND / rate;
+        }
+
+        if(waitNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for bandwidth");
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package net.jan.moddirector.core.util;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Collection;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finds out whether the network is usable at all by sending HEAD requests to the hosts the pack
+ * talks to. The requests go through {@link URLConnection}, so the proxy settings of the JVM apply
+ * exactly as they do to downloads. All hosts are probed at the same time and the whole probe is
+ * bounded by a single deadline, so a machine without network pays at most that deadline instead
+ * of a connect (or DNS) timeout per request.
+ */
+public class ConnectivityProbe {
+    /**
+     * Determines whether at least one of {@code urls} answers within {@code timeoutMillis}, with
+     * any status. Probes still running when the deadline passes are abandoned.
+     */
+    public static boolean anyReachable(Collection<URL> urls, int timeoutMillis) throws InterruptedException {
+        // Own threads, the probe usually runs from a worker of the shared pools after a request failed
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, urls.size()), runnable -> {
+            Thread thread = new Thread(runnable, "ModDirector connectivity probe");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            CompletionService<Boolean> completionService = new ExecutorCompletionService<>(executor);
+            for(URL url : urls) {
+                completionService.submit(() -> head(url, timeoutMillis));
+            }
+
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+            for(int i = 0; i < urls.size(); i++) {
+                long remaining = deadline - System.nanoTime();
+                Future<Boolean> result = completionService.poll(Math.max(remaining, 0), TimeUnit.NANOSECONDS);
+                if(result == null) {
+                    return false;
+                }
+
+                try {
+                    if(result.get()) {
+                        return true;
+                    }
+                } catch(ExecutionException e) {
+                    // Treated like an unreachable host
+                }
+            }
+            return false;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static boolean head(URL url, int timeoutMillis) {
+        HttpURLConnection connection = null;
+        try {
+            URLConnection urlConnection = url.openConnection();
+            if(!(urlConnection instanceof HttpURLConnection)) {
+                return false;
+            }
+
+            connection = (HttpURLConnection) urlConnection;
+            connection.setRequestMethod("HEAD");
+            connection.setInstanceFollowRedirects(false);
+            connection.setConnectTimeout(timeoutMillis);
+            connection.setReadTimeout(timeoutMillis);
+            connection.setRequestProperty("User-Agent", WebClient.USER_AGENT);
+
+            // Any response, even an error, proves the host (or the proxy in front of it) is there
+            connection.getResponseCode();
+            return true;
+        } catch(IOException | IllegalArgumentException e) {
+            return false;
+        } finally {
+            if(connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+}
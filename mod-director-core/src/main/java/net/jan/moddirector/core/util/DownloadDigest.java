@@ -0,0 +1,135 @@
+package net.jan.moddirector.core.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Message digests which are updated with the bytes of a download while they are written, so the
+ * file does not have to be read back for hash verification. Downloads which can not feed every
+ * byte through in order (segmented downloads) {@link #invalidate()} the digest, in which case
+ * the verifier falls back to hashing the file on disk.
+ */
+public class DownloadDigest {
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+    private static final ThreadLocal<ByteBuffer> HASH_BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocate(HASH_BUFFER_SIZE));
+
+    private final Map<String, MessageDigest> digests;
+    private boolean valid;
+
+    public DownloadDigest(Map<String, MessageDigest> digests) {
+        this.digests = digests;
+        this.valid = true;
+    }
+
+    /**
+     * Creates a digest which computes nothing, for mods without configured hashes.
+     */
+    public static DownloadDigest none() {
+        return new DownloadDigest(Collections.emptyMap());
+    }
+
+    public OutputStream wrap(OutputStream outputStream) {
+        if(digests.isEmpty()) {
+            return outputStream;
+        }
+
+        return new FilterOutputStream(outputStream) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                digests.values().forEach(digest -> digest.update((byte) b));
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                update(b, off, len);
+            }
+        };
+    }
+
+    public void update(byte[] data, int offset, int length) {
+        for(MessageDigest digest : digests.values()) {
+            digest.update(data, offset, length);
+        }
+    }
+
+    /**
+     * Feeds the bytes already present in {@code file} into the digest, used when a download
+     * continues a partial file.
+     */
+    public void update(Path file) throws IOException {
+        if(digests.isEmpty()) {
+            return;
+        }
+
+        // Reuse one buffer per thread, heap use stays constant no matter how large the file is
+        ByteBuffer buffer = HASH_BUFFER.get();
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer.clear();
+            while(channel.read(buffer) >= 0) {
+                buffer.flip();
+                for(MessageDigest digest : digests.values()) {
+                    buffer.mark();
+                    digest.update(buffer);
+                    buffer.reset();
+                }
+                buffer.clear();
+            }
+        }
+    }
+
+    /**
+     * Discards everything digested so far, used when a download has to start over.
+     */
+    public void reset() {
+        digests.values().forEach(MessageDigest::reset);
+        valid = true;
+    }
+
+    public void invalidate() {
+        valid = false;
+    }
+
+    public Set<String> algorithms() {
+        return digests.keySet();
+    }
+
+    public boolean isEmpty() {
+        return digests.isEmpty();
+    }
+
+    public boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * Finishes the digests and returns the lower case hex representation of each, keyed by algorithm.
+     */
+    public Map<String, String> finish() {
+        Map<String, String> result = new LinkedHashMap<>();
+        digests.forEach((algorithm, digest) -> result.put(algorithm, toHex(digest.digest())));
+        return result;
+    }
+
+    public static String toHex(byte[] hash) {
+        char[] chars = new char[hash.length * 2];
+        for(int i = 0; i < hash.length; i++) {
+            chars[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX_DIGITS[hash[i] & 0xF];
+        }
+        return new String(chars);
+    }
+}
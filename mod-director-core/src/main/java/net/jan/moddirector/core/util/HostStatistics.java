@@ -0,0 +1,73 @@
+package net.jan.moddirector.core.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running totals of the bytes received from and the failed requests (I/O errors, 5xx and 429
+ * responses) to a single host, recorded by {@link WebClient}. Requests are attributed to the host
+ * of the url they were made for, not to the hosts they were redirected to.
+ */
+public class HostStatistics {
+    private static final ConcurrentHashMap<String, HostStatistics> HOSTS = new ConcurrentHashMap<>();
+
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    public static HostStatistics of(String host) {
+        return HOSTS.computeIfAbsent(host.toLowerCase(Locale.ROOT), h -> new HostStatistics());
+    }
+
+    public static HostStatistics of(URL url) {
+        return of(url.getHost());
+    }
+
+    public void recordFailure() {
+        failures.increment();
+    }
+
+    public long bytes() {
+        return bytes.sum();
+    }
+
+    public long failures() {
+        return failures.sum();
+    }
+
+    /**
+     * Wraps {@code stream} so every byte read from it is counted for this host.
+     */
+    public InputStream count(InputStream stream) {
+        return new FilterInputStream(stream) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if(b != -1) {
+                    bytes.increment();
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int read = super.read(buffer, offset, length);
+                if(read > 0) {
+                    bytes.add(read);
+                }
+                return read;
+            }
+
+            @Override
+            public long skip(long n) throws IOException {
+                long skipped = super.skip(n);
+                bytes.add(skipped);
+                return skipped;
+            }
+        };
+    }
+}
@@ -5,25 +5,142 @@ import net.jan.moddirector.core.manage.ProgressCallback;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class IOOperation {
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+    private static final int CHANNEL_BUFFER_SIZE = 256 * 1024;
+    private static final long PROGRESS_REPORT_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long THROUGHPUT_REPORT_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    // One buffer per download worker instead of one per file
+    private static final ThreadLocal<byte[]> CHANNEL_BUFFER =
+            ThreadLocal.withInitial(() -> new byte[CHANNEL_BUFFER_SIZE]);
+
     public static void copy(InputStream inputStream, OutputStream outputStream, ProgressCallback callback, long knownLength) throws IOException {
+        copy(inputStream, outputStream, callback, 0, knownLength);
+    }
+
+    /**
+     * Copies the stream while reporting progress starting at {@code initialProgress}, used when
+     * continuing a download of which {@code initialProgress} bytes are already present. The copy is
+     * subject to the {@link BandwidthLimiter} and counted by the {@link ThroughputMeter}. Progress is
+     * reported every {@link #PROGRESS_REPORT_INTERVAL_NANOS} and the current rate every
+     * {@link #THROUGHPUT_REPORT_INTERVAL_NANOS}, not for every chunk.
+     */
+    public static void copy(InputStream inputStream, OutputStream outputStream, ProgressCallback callback,
+                            long initialProgress, long knownLength) throws IOException {
         callback.indeterminate(knownLength < 0);
 
-        byte[] buffer = new byte[8192];
+        byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+        ProgressReporter reporter = new ProgressReporter(callback, initialProgress, knownLength);
 
-        long progress = 0;
         int read;
         while((read = inputStream.read(buffer)) > 0) {
-            progress += read;
-            callback.reportProgress(progress, knownLength);
+            BandwidthLimiter.acquire(read);
+            ThroughputMeter.record(read);
+
             outputStream.write(buffer, 0, read);
+            reporter.advance(read);
         }
+        reporter.finish();
 
         inputStream.close();
         outputStream.close();
     }
 
+    /**
+     * Copies the stream to the current position of {@code channel}, feeding every byte through
+     * {@code digest}. Chunks of the stream are collected in a large per-thread buffer, so a write
+     * (and a digest update) happens per {@link #CHANNEL_BUFFER_SIZE} bytes instead of per network
+     * read. Progress is reported like {@link #copy(InputStream, OutputStream, ProgressCallback, long, long)}.
+     * Neither the stream nor the channel is closed.
+     */
+    public static void copy(InputStream inputStream, FileChannel channel, DownloadDigest digest,
+                            ProgressCallback callback, long initialProgress, long knownLength) throws IOException {
+        callback.indeterminate(knownLength < 0);
+
+        byte[] buffer = CHANNEL_BUFFER.get();
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+        ProgressReporter reporter = new ProgressReporter(callback, initialProgress, knownLength);
+
+        boolean endOfStream = false;
+        while(!endOfStream) {
+            int filled = 0;
+            while(filled < buffer.length) {
+                int read = inputStream.read(buffer, filled, buffer.length - filled);
+                if(read < 0) {
+                    endOfStream = true;
+                    break;
+                }
+
+                BandwidthLimiter.acquire(read);
+                ThroughputMeter.record(read);
+
+                filled += read;
+                reporter.advance(read);
+            }
+
+            if(filled == 0) {
+                break;
+            }
+
+            digest.update(buffer, 0, filled);
+            byteBuffer.clear();
+            byteBuffer.limit(filled);
+            while(byteBuffer.hasRemaining()) {
+                channel.write(byteBuffer);
+            }
+        }
+        reporter.finish();
+    }
+
+    /**
+     * Copies exactly {@code count} bytes of the stream to {@code position} in {@code channel} without
+     * moving the position of the channel, so several ranges of a file can be written at the same
+     * time, all reporting to the same {@code reporter}. Uses the same per-thread buffer, limits and
+     * rate limited reporting as {@link #copy(InputStream, FileChannel, DownloadDigest, ProgressCallback, long, long)}.
+     * Neither the stream nor the channel is closed.
+     */
+    public static void copyAt(InputStream inputStream, FileChannel channel, long position, long count,
+                              ProgressReporter reporter) throws IOException {
+        byte[] buffer = CHANNEL_BUFFER.get();
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer);
+
+        long remaining = count;
+        while(remaining > 0) {
+            int filled = 0;
+            int wanted = (int) Math.min(buffer.length, remaining);
+            while(filled < wanted) {
+                int read = inputStream.read(buffer, filled, wanted - filled);
+                if(read < 0) {
+                    throw new IOException("Stream ended " + (remaining - filled) + " bytes early");
+                }
+
+                BandwidthLimiter.acquire(read);
+                ThroughputMeter.record(read);
+
+                filled += read;
+                reporter.advance(read);
+            }
+
+            byteBuffer.clear();
+            byteBuffer.limit(filled);
+            while(byteBuffer.hasRemaining()) {
+                position += channel.write(byteBuffer, position);
+            }
+            remaining -= filled;
+        }
+    }
+
     public static void copy(InputStream inputStream, OutputStream outputStream) throws IOException {
         byte[] buffer = new byte[8192];
 
@@ -35,4 +152,61 @@ public class IOOperation {
         inputStream.close();
         outputStream.close();
     }
+
+    /**
+     * Moves a completely written {@code tempFile} over {@code targetFile}, so the target is either
+     * the old or the complete new file but never a partial one, even if the process dies or the
+     * machine crashes. The content is forced to disk before the rename, file systems may otherwise
+     * persist the rename first. Falls back to a plain move where atomic moves are not supported.
+     */
+    public static void moveIntoPlace(Path tempFile, Path targetFile) throws IOException {
+        try(FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+
+        try {
+            Files.move(tempFile, targetFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch(AtomicMoveNotSupportedException e) {
+            Files.move(tempFile, targetFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Rate limits the progress and throughput reports of a copy. May be shared by copies running on
+     * several threads, at most one of them reports per interval.
+     */
+    public static class ProgressReporter {
+        private final ProgressCallback callback;
+        private final long knownLength;
+        private final AtomicLong progress;
+        private final AtomicLong lastProgressReport;
+        private final AtomicLong lastThroughputReport;
+
+        public ProgressReporter(ProgressCallback callback, long initialProgress, long knownLength) {
+            this.callback = callback;
+            this.knownLength = knownLength;
+            this.progress = new AtomicLong(initialProgress);
+            this.lastProgressReport = new AtomicLong(System.nanoTime());
+            this.lastThroughputReport = new AtomicLong(lastProgressReport.get());
+        }
+
+        public void advance(int read) {
+            progress.addAndGet(read);
+
+            long now = System.nanoTime();
+            long lastProgress = lastProgressReport.get();
+            if(now - lastProgress >= PROGRESS_REPORT_INTERVAL_NANOS && lastProgressReport.compareAndSet(lastProgress, now)) {
+                callback.reportProgress(progress.get(), knownLength);
+            }
+
+            long lastThroughput = lastThroughputReport.get();
+            if(now - lastThroughput >= THROUGHPUT_REPORT_INTERVAL_NANOS && lastThroughputReport.compareAndSet(lastThroughput, now)) {
+                callback.reportThroughput(ThroughputMeter.bytesPerSecond());
+            }
+        }
+
+        public void finish() {
+            callback.reportProgress(progress.get(), knownLength);
+        }
+    }
 }
@@ -0,0 +1,292 @@
+package net.jan.moddirector.core.util;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import net.jan.moddirector.core.configuration.ConfigurationController;
+import net.jan.moddirector.core.manage.ProgressCallback;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Downloads a file into a {@code .part} file next to the target and moves it into place once complete.
+ * A {@code .part.json} sidecar records the url, the expected length and the validators (ETag and
+ * Last-Modified) of the response, so a download that was interrupted can be continued on the next
+ * attempt using a {@code Range} request. {@code If-Range} makes the server send the whole file again
+ * if it changed in the meantime, and servers without range support simply answer with the full file.
+ * Whenever the partial file can not be continued, because the server sent the whole file again or
+ * rejected the range with 416, the partial file and its sidecar are deleted and the download starts
+ * from zero.
+ * <p>
+ * The same mechanism continues a transfer which breaks off or stalls past the read timeout, up to
+ * {@link WebClient#retries()} times, so a flaky connection costs the missing bytes instead of the
+ * whole file.
+ */
+public class ResumableDownload {
+    private static final String PART_SUFFIX = ".part";
+    private static final String STATE_SUFFIX = ".part.json";
+
+    /**
+     * Downloads {@code url} to {@code targetFile}, feeding every byte of the final file through {@code digest}.
+     * The bytes of a continued partial file are read back once to bring the digest up to date.
+     */
+    public static void download(URL url, Path targetFile, ProgressCallback callback, DownloadDigest digest)
+            throws IOException {
+        for(int attempt = 0; ; attempt++) {
+            try {
+                downloadOnce(url, targetFile, callback, digest);
+                return;
+            } catch(TransferException e) {
+                HostStatistics.of(url).recordFailure();
+                if(attempt >= WebClient.retries() || !WebClient.isRetryable(e.getCause())) {
+                    throw e.getCause();
+                }
+
+                // Whatever the digest saw so far is fed again from the part file on resume
+                digest.reset();
+                WebClient.sleepBeforeRetry(attempt, e.getCause());
+            }
+        }
+    }
+
+    private static void downloadOnce(URL url, Path targetFile, ProgressCallback callback, DownloadDigest digest)
+            throws IOException {
+        Path partFile = targetFile.resolveSibling(targetFile.getFileName() + PART_SUFFIX);
+        Path stateFile = targetFile.resolveSibling(targetFile.getFileName() + STATE_SUFFIX);
+
+        PartState state = readState(stateFile, url);
+        long offset = state != null && Files.isRegularFile(partFile) ? Files.size(partFile) : 0;
+        if(state == null || (state.length >= 0 && offset > state.length)) {
+            offset = 0;
+        }
+
+        if(state != null && offset > 0 && offset == state.length) {
+            // The previous attempt got all bytes but did not get to move the file
+            digest.update(partFile);
+            finish(partFile, stateFile, targetFile);
+            return;
+        }
+
+        Map<String, String> requestHeaders = new HashMap<>();
+        if(offset > 0) {
+            requestHeaders.put("Range", "bytes=" + offset + "-");
+            requestHeaders.put("If-Range", state.etag != null ? state.etag : state.lastModified);
+        }
+
+        WebGetResponse openedResponse;
+        try {
+            openedResponse = WebClient.get(url, requestHeaders);
+        } catch(WebClient.HttpStatusException e) {
+            if(offset > 0 && e.getStatusCode() == 416) {
+                // The part file is longer than the file on the server, it belongs to another version
+                discard(partFile, stateFile);
+                downloadOnce(url, targetFile, callback, digest);
+                return;
+            }
+            throw e;
+        }
+
+        boolean restart = false;
+        try(WebGetResponse response = openedResponse) {
+            boolean resumed = offset > 0 && response.getStatusCode() == 206
+                    && isRangeStartingAt(response.getHeader("Content-Range"), offset);
+            if(resumed) {
+                digest.update(partFile);
+            } else if(offset > 0) {
+                // The If-Range validator no longer matched, or the range was not honoured
+                discard(partFile, stateFile);
+                // A range starting elsewhere can not be appended, the whole file is requested instead
+                restart = response.getStatusCode() == 206;
+                offset = 0;
+            }
+
+            if(!restart) {
+                transfer(url, response, partFile, stateFile, resumed, offset, callback, digest);
+            }
+        }
+
+        if(restart) {
+            downloadOnce(url, targetFile, callback, digest);
+            return;
+        }
+
+        finish(partFile, stateFile, targetFile);
+    }
+
+    /**
+     * Writes the body of {@code response} to the part file, appending to it if the download is resumed.
+     */
+    private static void transfer(URL url, WebGetResponse response, Path partFile, Path stateFile, boolean resumed,
+                                 long offset, ProgressCallback callback, DownloadDigest digest) throws IOException {
+        long totalLength = response.getStreamSize() < 0 ? -1 : offset + response.getStreamSize();
+        writeState(stateFile, url, totalLength, response);
+
+        try(FileChannel channel = resumed ?
+                FileChannel.open(partFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND) :
+                FileChannel.open(partFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+            // Only failures reading the body are worth a retry, failures writing the part file
+            // (disk full, no permission) are passed on as they are
+            IOOperation.copy(new TransferInputStream(response.getInputStream()), channel, digest, callback,
+                    offset, totalLength);
+        } catch(TransferException e) {
+            // The connection broke off or stalled, the part file keeps what arrived. What is left of
+            // a stalled body would only block closing it for another read timeout.
+            response.abandon();
+            throw e;
+        }
+
+        if(totalLength >= 0 && Files.size(partFile) != totalLength) {
+            throw new TransferException(new IOException("Download of " + url + " ended after " +
+                    Files.size(partFile) + " out of " + totalLength + " bytes"));
+        }
+    }
+
+    private static void finish(Path partFile, Path stateFile, Path targetFile) throws IOException {
+        Files.move(partFile, targetFile, StandardCopyOption.REPLACE_EXISTING);
+        Files.deleteIfExists(stateFile);
+    }
+
+    private static void discard(Path partFile, Path stateFile) throws IOException {
+        Files.deleteIfExists(stateFile);
+        Files.deleteIfExists(partFile);
+    }
+
+    /**
+     * Returns the name of the file {@code file} was going to become if it is named like a part file
+     * or sidecar of this class or {@link SegmentedDownload}, {@code null} otherwise.
+     */
+    public static String partialTargetName(Path file) {
+        String name = file.getFileName().toString();
+        if(name.endsWith(STATE_SUFFIX)) {
+            return name.substring(0, name.length() - STATE_SUFFIX.length());
+        } else if(name.endsWith(PART_SUFFIX)) {
+            return name.substring(0, name.length() - PART_SUFFIX.length());
+        }
+        return null;
+    }
+
+    /**
+     * Determines whether a resumable download of {@code targetFile} has left its sidecar behind.
+     */
+    public static boolean hasPartState(Path targetFile) {
+        return Files.isRegularFile(targetFile.resolveSibling(targetFile.getFileName() + STATE_SUFFIX));
+    }
+
+    private static boolean isRangeStartingAt(String contentRange, long offset) {
+        // Content-Range: bytes <start>-<end>/<total>
+        if(contentRange == null || !contentRange.startsWith("bytes ")) {
+            return false;
+        }
+
+        int dash = contentRange.indexOf('-');
+        if(dash < 0) {
+            return false;
+        }
+
+        try {
+            return Long.parseLong(contentRange.substring(6, dash).trim()) == offset;
+        } catch(NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static PartState readState(Path stateFile, URL url) {
+        if(!Files.isRegularFile(stateFile)) {
+            return null;
+        }
+
+        try(InputStream stream = Files.newInputStream(stateFile)) {
+            PartState state = ConfigurationController.OBJECT_MAPPER.readValue(stream, PartState.class);
+            if(!url.toExternalForm().equals(state.url) || (state.etag == null && state.lastModified == null)) {
+                return null;
+            }
+            return state;
+        } catch(IOException e) {
+            // A broken sidecar only costs a full download
+            return null;
+        }
+    }
+
+    private static void writeState(Path stateFile, URL url, long length, WebGetResponse response) throws IOException {
+        PartState state = new PartState();
+        state.url = url.toExternalForm();
+        state.length = length;
+        state.etag = response.getHeader("ETag");
+        state.lastModified = response.getHeader("Last-Modified");
+
+        if(state.etag == null && state.lastModified == null) {
+            // Without a validator a partial file can never be safely continued
+            Files.deleteIfExists(stateFile);
+            return;
+        }
+
+        try(OutputStream stream = Files.newOutputStream(stateFile)) {
+            ConfigurationController.OBJECT_MAPPER.writeValue(stream, state);
+        }
+    }
+
+    private static class PartState {
+        @JsonProperty
+        private String url;
+
+        @JsonProperty
+        private long length;
+
+        @JsonProperty
+        private String etag;
+
+        @JsonProperty
+        private String lastModified;
+    }
+
+    /**
+     * Wraps failures reading the body of the response as {@link TransferException}.
+     */
+    private static class TransferInputStream extends FilterInputStream {
+        private TransferInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                return super.read();
+            } catch(IOException e) {
+                throw new TransferException(e);
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                return super.read(b, off, len);
+            } catch(IOException e) {
+                throw new TransferException(e);
+            }
+        }
+    }
+
+    /**
+     * Wraps failures during the transfer of the body, which are retried by resuming the part file.
+     */
+    private static class TransferException extends IOException {
+        private TransferException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package net.jan.moddirector.core.util;
+
+import net.jan.moddirector.core.manage.HostScheduler;
+import net.jan.moddirector.core.manage.ProgressCallback;
+
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Downloads a large file as several byte ranges fetched concurrently, each written at its own
+ * position into a preallocated {@code .part} file which is moved into place when all ranges are
+ * complete. A single connection to a CDN is often limited in throughput well below the available
+ * bandwidth, multiple connections are not.
+ * <p>
+ * Every range is requested with {@code If-Range} set to the validator (ETag or Last-Modified) of the
+ * first response, so ranges of different versions of a file are never stitched together. Should the
+ * file change in between, the server answers with the whole file and it is downloaded again as a
+ * single stream.
+ * <p>
+ * Every additional range is a connection to the host, so they are reserved from the
+ * {@link HostScheduler} and the file is split into fewer ranges when the host is already at its
+ * limit. The additional ranges run on a bounded pool.
+ */
+public class SegmentedDownload {
+    private static final int MAX_SEGMENT_THREADS = 16;
+    private static final ThreadPoolExecutor SEGMENT_EXECUTOR = new ThreadPoolExecutor(
+            MAX_SEGMENT_THREADS, MAX_SEGMENT_THREADS, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+        Thread thread = new Thread(runnable, "ModDirector segmented download");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        SEGMENT_EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Determines whether the download behind the given (not yet consumed) response should be segmented.
+     * This requires the server to advertise byte range support, a known length of at least
+     * {@code threshold} bytes and a validator to pin the ranges to this version of the file.
+     */
+    public static boolean shouldSegment(WebGetResponse response, long threshold, int segments) {
+        return segments > 1
+                && response.getStatusCode() == 200
+                && response.getStreamSize() >= threshold
+                && "bytes".equalsIgnoreCase(response.getHeader("Accept-Ranges"))
+                && validator(response) != null;
+    }
+
+    /**
+     * Downloads {@code url} to {@code targetFile} in up to {@code segments} ranges. The first range is
+     * read from the already opened {@code firstResponse}, the remaining ones are requested concurrently,
+     * as many as {@code scheduler} grants connections to the host for. Without a scheduler all ranges
+     * are requested. Should the server not honour a range request after all, the file is downloaded
+     * again as a single stream.
+     */
+    public static void download(URL url, WebGetResponse firstResponse, Path targetFile, int segments,
+                                ProgressCallback callback, HostScheduler scheduler) throws IOException {
+        String host = url.getHost();
+        int extraConnections = scheduler != null ? scheduler.tryAcquire(host, segments - 1) : segments - 1;
+        List<Runnable> releases = new ArrayList<>();
+        for(int i = 0; i < extraConnections; i++) {
+            AtomicBoolean released = new AtomicBoolean();
+            releases.add(() -> {
+                if(scheduler != null && released.compareAndSet(false, true)) {
+                    scheduler.release(host);
+                }
+            });
+        }
+
+        try {
+            download(url, firstResponse, targetFile, extraConnections + 1, callback, releases);
+        } finally {
+            // Ranges which never started, or were cancelled, give their connection back here
+            releases.forEach(Runnable::run);
+        }
+    }
+
+    private static void download(URL url, WebGetResponse firstResponse, Path targetFile, int segments,
+                                 ProgressCallback callback, List<Runnable> releases) throws IOException {
+        long length = firstResponse.getStreamSize();
+        String validator = validator(firstResponse);
+        long segmentLength = (length + segments - 1) / segments;
+        Path partFile = targetFile.resolveSibling(targetFile.getFileName() + ".part");
+        IOOperation.ProgressReporter reporter = new IOOperation.ProgressReporter(callback, 0, length);
+
+        callback.indeterminate(false);
+
+        try(FileChannel channel = FileChannel.open(partFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            // Preallocate so the positional writes of the segments never have to grow the file
+            channel.write(ByteBuffer.allocate(1), length - 1);
+
+            List<Future<Void>> futures = new ArrayList<>();
+            for(int i = 1; i < segments; i++) {
+                long start = i * segmentLength;
+                long end = Math.min(length, start + segmentLength) - 1;
+                if(start > end) {
+                    break;
+                }
+
+                Runnable release = releases.get(i - 1);
+                futures.add(SEGMENT_EXECUTOR.submit(() -> {
+                    try {
+                        downloadRange(url, validator, channel, start, end, reporter);
+                    } finally {
+                        release.run();
+                    }
+                    return null;
+                }));
+            }
+
+            boolean rangesHonoured = true;
+            try {
+                IOOperation.copyAt(firstResponse.getInputStream(), channel, 0, Math.min(length, segmentLength),
+                        reporter);
+            } catch(IOException e) {
+                futures.forEach(f -> f.cancel(true));
+                throw e;
+            } finally {
+                firstResponse.close();
+            }
+
+            for(Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    futures.forEach(f -> f.cancel(true));
+                    throw new IOException("Interrupted while waiting for download segments", e);
+                } catch(ExecutionException e) {
+                    if(e.getCause() instanceof RangeNotHonouredException) {
+                        rangesHonoured = false;
+                    } else {
+                        futures.forEach(f -> f.cancel(true));
+                        throw e.getCause() instanceof IOException ? (IOException) e.getCause()
+                                : new IOException("Download segment failed", e.getCause());
+                    }
+                }
+            }
+
+            if(rangesHonoured) {
+                reporter.finish();
+            } else {
+                // The file may have changed, including its length, so nothing of what arrived is kept
+                channel.truncate(0);
+                try(WebGetResponse response = WebClient.get(url)) {
+                    IOOperation.copy(response.getInputStream(), channel, DownloadDigest.none(), callback,
+                            0, response.getStreamSize());
+                }
+            }
+        }
+
+        Files.move(partFile, targetFile, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void downloadRange(URL url, String validator, FileChannel channel, long start, long end,
+                                      IOOperation.ProgressReporter reporter) throws IOException {
+        Map<String, String> requestHeaders = new HashMap<>();
+        requestHeaders.put("Range", "bytes=" + start + "-" + end);
+        requestHeaders.put("If-Range", validator);
+
+        try(WebGetResponse response = WebClient.get(url, requestHeaders)) {
+            String contentRange = response.getHeader("Content-Range");
+            if(response.getStatusCode() != 206 || contentRange == null || !contentRange.startsWith("bytes " + start + "-")) {
+                throw new RangeNotHonouredException();
+            }
+
+            // Servers ignoring If-Range still send the validator of what they serve
+            String responseValidator = validator(response);
+            if(responseValidator != null && !responseValidator.equals(validator)) {
+                throw new RangeNotHonouredException();
+            }
+
+            IOOperation.copyAt(response.getInputStream(), channel, start, end - start + 1, reporter);
+        }
+    }
+
+    /**
+     * Returns the validator to send as {@code If-Range}: the ETag unless it is weak, which
+     * {@code If-Range} does not allow, otherwise Last-Modified, {@code null} if there is neither.
+     */
+    private static String validator(WebGetResponse response) {
+        String etag = response.getHeader("ETag");
+        if(etag != null && !etag.startsWith("W/")) {
+            return etag;
+        }
+        return response.getHeader("Last-Modified");
+    }
+
+    /**
+     * Thrown when a range can not be used, because the server sent something else or the file changed.
+     */
+    private static class RangeNotHonouredException extends IOException {
+        private RangeNotHonouredException() {
+            super("Server did not honour the range request");
+        }
+    }
+}
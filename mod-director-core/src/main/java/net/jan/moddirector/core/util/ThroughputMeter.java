@@ -0,0 +1,70 @@
+package net.jan.moddirector.core.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the combined throughput of all downloads. Recording is a single {@link LongAdder}
+ * update, the current rate is computed on demand over windows of at least half a second.
+ */
+public class ThroughputMeter {
+    private static final long WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+    private static final Object LOCK = new Object();
+
+    private static final LongAdder TOTAL_BYTES = new LongAdder();
+
+    private static volatile long firstRecord = 0;
+    private static volatile long lastRecord = 0;
+
+    private static long windowStart = System.nanoTime();
+    private static long windowBytes = 0;
+    private static double currentRate = 0;
+
+    public static void record(int bytes) {
+        TOTAL_BYTES.add(bytes);
+
+        long now = System.nanoTime();
+        if(firstRecord == 0) {
+            firstRecord = now;
+        }
+        lastRecord = now;
+    }
+
+    /**
+     * @return the combined rate in bytes per second over the last completed window
+     */
+    public static double bytesPerSecond() {
+        synchronized(LOCK) {
+            long now = System.nanoTime();
+            if(now - windowStart >= WINDOW_NANOS) {
+                long total = TOTAL_BYTES.sum();
+                currentRate = (total - windowBytes) * 1e9 / (now - windowStart);
+                windowStart = now;
+                windowBytes = total;
+            }
+            return currentRate;
+        }
+    }
+
+    public static long totalBytes() {
+        return TOTAL_BYTES.sum();
+    }
+
+    /**
+     * @return the average rate in bytes per second between the first and the last recorded bytes
+     */
+    public static double averageBytesPerSecond() {
+        long elapsed = lastRecord - firstRecord;
+        return elapsed > 0 ? TOTAL_BYTES.sum() * 1e9 / elapsed : 0;
+    }
+
+    /**
+     * Formats a rate for logs and the UI, for example {@code 12.3 MB/s}.
+     */
+    public static String format(double bytesPerSecond) {
+        if(bytesPerSecond >= 1024 * 1024) {
+            return String.format("%.1f MB/s", bytesPerSecond / (1024 * 1024));
+        }
+        return String.format("%.0f KB/s", bytesPerSecond / 1024);
+    }
+}
@@ -1,28 +1,165 @@
 package net.jan.moddirector.core.util;
 
+import net.jan.moddirector.core.configuration.modpack.ModpackNetworkConfiguration;
+
+import javax.net.ssl.SSLHandshakeException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.net.UnknownHostException;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
 
+/**
+ * Thin HTTP client on top of {@link HttpURLConnection}. Every request is bounded by the connect
+ * and read timeouts of the {@link ModpackNetworkConfiguration}, and GET requests which fail with
+ * an I/O error, a 5xx or a 429 response are retried with jittered exponential backoff, waiting at
+ * least as long as the server asked for with {@code Retry-After}.
+ */
 public class WebClient {
     public static final String USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/123.0.0.0 Safari/537.36";
 
+    private static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 16;
+
+    private static volatile boolean offline = false;
+    private static volatile ModpackNetworkConfiguration network = ModpackNetworkConfiguration.createDefault();
+
+    static {
+        // HttpURLConnection keeps idle connections in a per-host keep-alive cache which only holds 5
+        // connections by default. Nearly all traffic goes to a handful of hosts from 16 worker threads,
+        // so raise the limit to keep the TCP and TLS sessions of every worker alive across the query
+        // and install phases. Must happen before the first connection is returned to the cache.
+        if(System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", String.valueOf(
+                    Integer.getInteger("moddirector.http.maxConnectionsPerHost", DEFAULT_MAX_CONNECTIONS_PER_HOST)));
+        }
+    }
+
+    /**
+     * Switches offline mode on or off. While offline, every http request fails immediately instead
+     * of waiting for a connection which can not be made, other urls (local files) still work.
+     */
+    public static void setOffline(boolean offline) {
+        WebClient.offline = offline;
+    }
+
+    public static boolean isOffline() {
+        return offline;
+    }
+
+    /**
+     * Applies the timeouts and retry policy of the pack to all following requests.
+     */
+    public static void configure(ModpackNetworkConfiguration network) {
+        WebClient.network = network;
+    }
+
     public static WebGetResponse get(URL url) throws IOException  {
+        return get(url, Collections.emptyMap());
+    }
+
+    public static WebGetResponse get(URL url, Map<String, String> requestHeaders) throws IOException  {
+        for(int attempt = 0; ; attempt++) {
+            try {
+                return getOnce(url, requestHeaders);
+            } catch(IOException e) {
+                boolean retryable = isRetryable(e);
+                if(retryable && url.getProtocol().startsWith("http")) {
+                    HostStatistics.of(url).recordFailure();
+                }
+                if(attempt >= network.retries() || !retryable) {
+                    throw e;
+                }
+
+                sleepBeforeRetry(attempt, e);
+            }
+        }
+    }
+
+    /**
+     * Determines whether a failed GET is worth another attempt: transient network errors, server
+     * errors and rate limiting are, unknown hosts, certificate problems and other client errors
+     * are not.
+     */
+    public static boolean isRetryable(IOException e) {
+        if(e instanceof HttpStatusException) {
+            int status = ((HttpStatusException) e).statusCode;
+            return status == 429 || status >= 500;
+        }
+
+        return !(e instanceof UnknownHostException)
+                && !(e instanceof MalformedURLException)
+                && !(e instanceof SSLHandshakeException)
+                && !(e instanceof OfflineException)
+                && !(e instanceof InterruptedIOException && Thread.currentThread().isInterrupted());
+    }
+
+    /**
+     * Waits before retry {@code attempt} (counted from 0) of a request which failed with
+     * {@code cause}, using full jitter, but at least as long as the server asked for with
+     * {@code Retry-After}. Rethrows {@code cause} if the server asked for a longer delay than the
+     * configured maximum.
+     */
+    public static void sleepBeforeRetry(int attempt, IOException cause) throws IOException {
+        long retryAfter = cause instanceof HttpStatusException ? ((HttpStatusException) cause).retryAfter : -1;
+        long backoff = Math.min(network.maxRetryDelay(), network.retryBaseDelay() << Math.min(attempt, 20));
+        long delay = ThreadLocalRandom.current().nextLong(backoff + 1);
+
+        if(retryAfter >= 0) {
+            if(retryAfter > network.maxRetryDelay()) {
+                throw cause;
+            }
+            delay = Math.max(delay, retryAfter);
+        }
+
+        try {
+            Thread.sleep(delay);
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException interrupted = new InterruptedIOException("Interrupted while waiting to retry");
+            interrupted.initCause(cause);
+            throw interrupted;
+        }
+    }
+
+    /**
+     * @return the number of times a failed GET request is retried
+     */
+    public static int retries() {
+        return network.retries();
+    }
+
+    private static WebGetResponse getOnce(URL url, Map<String, String> requestHeaders) throws IOException  {
+        checkOnline(url);
         URLConnection connection = url.openConnection();
+        applyTimeouts(connection);
         if(!(connection instanceof HttpURLConnection)) {
             return new WebGetResponse(connection.getInputStream(), connection.getContentLengthLong());
         }
 
+        // Redirects are still accounted to the host the request was made for
+        HostStatistics statistics = HostStatistics.of(url);
+
         int redirectCount = 0;
         HttpURLConnection httpConnection = (HttpURLConnection) connection;
         httpConnection.setRequestProperty("User-Agent", USER_AGENT);
+        requestHeaders.forEach(httpConnection::setRequestProperty);
         httpConnection.connect();
 
         while(true) {
             int status = httpConnection.getResponseCode();
-            if(status - 300 >= 0 && status - 300 <= 99) {
+            // 304 Not Modified answers a conditional request, it is not a redirect
+            if(status - 300 >= 0 && status - 300 <= 99 && status != HttpURLConnection.HTTP_NOT_MODIFIED) {
                 if(redirectCount > 10) {
                     throw new IOException("Server tried to redirect too many times");
                 }
@@ -30,8 +167,9 @@ public class WebClient {
                 String newUrl = httpConnection.getHeaderField("Location");
                 String cookies = httpConnection.getHeaderField("Set-Cookie");
 
-                httpConnection.getInputStream().close();
-                httpConnection.disconnect();
+                // Read the (usually tiny) redirect body instead of disconnecting, so the connection
+                // goes back into the keep-alive cache
+                WebGetResponse.drain(httpConnection.getInputStream());
 
                 try {
                     url = new URL(newUrl);
@@ -43,9 +181,11 @@ public class WebClient {
 
                     redirectCount++;
 
+                    applyTimeouts(connection);
                     httpConnection = (HttpURLConnection) connection;
                     httpConnection.setRequestProperty("Cookie", cookies);
                     httpConnection.setRequestProperty("User-Agent", USER_AGENT);
+                    requestHeaders.forEach(httpConnection::setRequestProperty);
                     httpConnection.connect();
                 } catch(MalformedURLException e) {
                     throw new IOException("Server sent invalid redirect url", e);
@@ -55,6 +195,126 @@ public class WebClient {
             }
         }
 
-        return new WebGetResponse(httpConnection.getInputStream(), httpConnection.getContentLengthLong());
+        checkStatus(httpConnection, url);
+        return new WebGetResponse(statistics.count(openInputStream(httpConnection)), httpConnection.getContentLengthLong(),
+                httpConnection.getResponseCode(), httpConnection.getHeaderFields());
+    }
+
+    public static WebGetResponse post(URL url, String contentType, byte[] body) throws IOException {
+        checkOnline(url);
+        URLConnection connection = url.openConnection();
+        if(!(connection instanceof HttpURLConnection)) {
+            throw new IOException("Can only POST to http urls: " + url);
+        }
+
+        applyTimeouts(connection);
+        HttpURLConnection httpConnection = (HttpURLConnection) connection;
+        httpConnection.setRequestMethod("POST");
+        httpConnection.setDoOutput(true);
+        httpConnection.setRequestProperty("User-Agent", USER_AGENT);
+        httpConnection.setRequestProperty("Content-Type", contentType);
+        httpConnection.setFixedLengthStreamingMode(body.length);
+
+        try(OutputStream outputStream = httpConnection.getOutputStream()) {
+            outputStream.write(body);
+        }
+
+        checkStatus(httpConnection, url);
+        return new WebGetResponse(openInputStream(httpConnection), httpConnection.getContentLengthLong(),
+                httpConnection.getResponseCode(), httpConnection.getHeaderFields());
+    }
+
+    private static void checkOnline(URL url) throws IOException {
+        if(offline && url.getProtocol().startsWith("http")) {
+            throw new OfflineException("Running in offline mode, not fetching " + url);
+        }
+    }
+
+    private static void applyTimeouts(URLConnection connection) {
+        connection.setConnectTimeout(network.connectTimeout());
+        connection.setReadTimeout(network.readTimeout());
+    }
+
+    private static void checkStatus(HttpURLConnection httpConnection, URL url) throws IOException {
+        int status = httpConnection.getResponseCode();
+        if(status < 400) {
+            return;
+        }
+
+        long retryAfter = parseRetryAfter(httpConnection.getHeaderField("Retry-After"));
+        InputStream errorStream = httpConnection.getErrorStream();
+        if(errorStream != null) {
+            WebGetResponse.drain(errorStream);
+        }
+        throw new HttpStatusException("Server returned HTTP response code: " + status + " for URL: " + url,
+                status, retryAfter);
+    }
+
+    /**
+     * Parses a {@code Retry-After} header, which is either a number of seconds or a date, into
+     * milliseconds from now. Returns -1 if there is none or it can not be parsed.
+     */
+    private static long parseRetryAfter(String value) {
+        if(value == null) {
+            return -1;
+        }
+
+        value = value.trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch(NumberFormatException e) {
+            // Not a number of seconds, try the date form
+        }
+
+        try {
+            Instant retryAt = ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant();
+            return Math.max(0, retryAt.toEpochMilli() - System.currentTimeMillis());
+        } catch(DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    private static InputStream openInputStream(HttpURLConnection httpConnection) throws IOException {
+        try {
+            return httpConnection.getInputStream();
+        } catch(IOException e) {
+            // Error responses carry a body as well, consuming it keeps the connection reusable
+            InputStream errorStream = httpConnection.getErrorStream();
+            if(errorStream != null) {
+                WebGetResponse.drain(errorStream);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Thrown for error responses, carries the status code and the delay the server asked for.
+     */
+    public static class HttpStatusException extends IOException {
+        private final int statusCode;
+        private final long retryAfter;
+
+        private HttpStatusException(String message, int statusCode, long retryAfter) {
+            super(message);
+            this.statusCode = statusCode;
+            this.retryAfter = retryAfter;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+
+        /**
+         * @return the delay in milliseconds the server asked for before retrying, or -1 if it did not
+         */
+        public long getRetryAfter() {
+            return retryAfter;
+        }
+    }
+
+    private static class OfflineException extends IOException {
+        private OfflineException(String message) {
+            super(message);
+        }
     }
 }
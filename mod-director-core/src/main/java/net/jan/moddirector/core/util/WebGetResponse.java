@@ -2,14 +2,30 @@ package net.jan.moddirector.core.util;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 public class WebGetResponse implements AutoCloseable {
+    // Leftovers up to this size are read on close so the connection can be reused, anything
+    // larger is cheaper to abandon than to download
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
     private final InputStream inputStream;
     private final long streamSize;
+    private final int statusCode;
+    private final Map<String, List<String>> headers;
+    private volatile boolean abandoned;
 
     public WebGetResponse(InputStream inputStream, long streamSize) {
+        this(inputStream, streamSize, -1, Collections.emptyMap());
+    }
+
+    public WebGetResponse(InputStream inputStream, long streamSize, int statusCode, Map<String, List<String>> headers) {
         this.inputStream = inputStream;
         this.streamSize = streamSize;
+        this.statusCode = statusCode;
+        this.headers = headers;
     }
 
     public InputStream getInputStream() {
@@ -20,8 +36,61 @@ public class WebGetResponse implements AutoCloseable {
         return streamSize;
     }
 
+    /**
+     * @return the HTTP status code of the final response, or -1 if the url was not a http url
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return the last value of the given response header (compared case-insensitively), or null if absent
+     */
+    public String getHeader(String name) {
+        for(Map.Entry<String, List<String>> header : headers.entrySet()) {
+            if(name.equalsIgnoreCase(header.getKey()) && !header.getValue().isEmpty()) {
+                return header.getValue().get(header.getValue().size() - 1);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Makes {@link #close()} close the body without reading what is left of it. For responses whose
+     * transfer failed, reading on would at best fail again and at worst wait for another read timeout.
+     */
+    public void abandon() {
+        abandoned = true;
+    }
+
     @Override
     public void close() throws IOException {
-        inputStream.close();
+        if(abandoned) {
+            inputStream.close();
+        } else {
+            drain(inputStream);
+        }
+    }
+
+    /**
+     * Consumes what is left of a response body (up to {@link #MAX_DRAIN_BYTES}) and closes it.
+     * HttpURLConnection only returns a connection to its keep-alive cache once the body has been
+     * read to the end, so closing a partially read stream would otherwise cost a fresh TCP and TLS
+     * handshake on the next request to the same host.
+     */
+    static void drain(InputStream inputStream) throws IOException {
+        try {
+            byte[] buffer = new byte[8192];
+            long remaining = MAX_DRAIN_BYTES;
+            int read;
+            while(remaining > 0 && (read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining))) >= 0) {
+                remaining -= read;
+            }
+        } catch(IOException ignored) {
+            // Already closed by the consumer or the connection broke, nothing left to reuse
+        } finally {
+            inputStream.close();
+        }
     }
 }